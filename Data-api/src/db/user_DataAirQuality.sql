@@ -11,4 +11,7 @@ CREATE TABLE user_DataAirQuality (
 );
 
 -- Goes through the table trying to find an instance of matching latitude and longitude (Could be modified to search for different variables)
-CREATE INDEX IF NOT EXISTS idx_lat_lon ON user_DataAirQuality (latitude, longitude);
+CREATE INDEX IF NOT EXISTS idx_user_DataAirQuality_loc_time ON user_DataAirQuality (latitude, longitude, dateTime);
+
+-- Backs time-range queries and dateTime cursors on the list endpoints
+CREATE INDEX IF NOT EXISTS idx_user_DataAirQuality_dateTime ON user_DataAirQuality (dateTime);
@@ -11,7 +11,10 @@ CREATE TABLE user_DataUV (
 );
 
 -- Goes through the table trying to find an instance of matching latitude and longitude (Could be modified to take another variable)
-CREATE INDEX IF NOT EXISTS idx_lat_lon ON user_DataUV (latitude, longitude);
+CREATE INDEX IF NOT EXISTS idx_user_DataUV_loc_time ON user_DataUV (latitude, longitude, dateTime);
+
+-- Backs time-range queries and dateTime cursors on the list endpoints
+CREATE INDEX IF NOT EXISTS idx_user_DataUV_dateTime ON user_DataUV (dateTime);
 
 
 
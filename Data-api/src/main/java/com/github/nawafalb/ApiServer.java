@@ -1,26 +1,55 @@
 package com.github.nawafalb;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import io.github.cdimascio.dotenv.Dotenv;
 
 public class ApiServer {
 
-    private static final String DB_URL = "jdbc:sqlite:src/db/userData.db";
     private static final ObjectMapper mapper = new ObjectMapper();
+    // DATA_API_STREAM=false falls back to building the whole list in memory
+    private static final boolean STREAM_LISTS = !"false".equalsIgnoreCase(System.getenv("DATA_API_STREAM"));
+    // Rows an unpaged list reads per pooled connection before writing them out
+    static final int LIST_CHUNK_ROWS = ServerExecutors.intEnv("LIST_CHUNK_ROWS", 1000);
+    private static final ServerExecutors.RequestExecutor executor = ServerExecutors.fromEnv("data-api");
+    private static final ResponseCache cache = ResponseCache.fromEnv();
+    static final int MAX_LOCATIONS = ServerExecutors.intEnv("MAX_LOCATIONS", 100);
+    static final int MAX_AGGREGATE_ROWS = ServerExecutors.intEnv("MAX_AGGREGATE_ROWS", 50_000);
+    private static IngestionScheduler scheduler;
+
+    // Time to run a query up to its first row
+    private static final Metrics.Histogram LIST_QUERY = Metrics.histogram("db_query_duration_seconds",
+            "Time to execute a query", "service", "data-api", "query", "list");
+    private static final Metrics.Histogram LATEST_QUERY = Metrics.histogram("db_query_duration_seconds",
+            "Time to execute a query", "service", "data-api", "query", "latest");
+    private static final Metrics.Histogram AGGREGATE_QUERY = Metrics.histogram("db_query_duration_seconds",
+            "Time to execute a query", "service", "data-api", "query", "aggregate");
+    private static final Metrics.Histogram BY_ID_QUERY = Metrics.histogram("db_query_duration_seconds",
+            "Time to execute a query", "service", "data-api", "query", "by_id");
 
     public static void main(String[] args) throws IOException {
-        int port = 8080;
+        start(8080);
+    }
 
+    /** Opens the database and starts serving on {@code port} (0 picks a free one). */
+    public static HttpServer start(int port) throws IOException {
         // Load SQLite JDBC driver before used in handlers
         try {
             Class.forName("org.sqlite.JDBC");
@@ -29,187 +58,784 @@ public class ApiServer {
             e.printStackTrace();
         }
 
-        // Resequence IDs on startup
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            resequenceIds("user_DataAirQuality");
-            resequenceIds("user_DataUV");
+        // Open the connection pool up front so the first request doesn't pay for it
+        try {
+            ConnectionPool pool = DatabaseHelper.pool();
+            System.out.println("Connection pool ready (" + pool.size() + " connections).");
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        
+
+        // Indexes for range queries, cursors and pruning (no-op once they exist)
+        try {
+            ReadingStore.ensureSchema();
+        } catch (SQLException e) {
+            System.err.println("Failed to create reading indexes: " + e.getMessage());
+        }
+
+        // Tables the endpoints may read; reloaded when the schema changes
+        try {
+            SchemaRegistry.startPolling(ServerExecutors.intEnv("SCHEMA_POLL_MS", 5000));
+        } catch (SQLException e) {
+            System.err.println("Failed to load schema: " + e.getMessage());
+        }
+
+        // Cached responses are tied to the data version the loaders bump
+        try {
+            DataVersion.startPolling(ServerExecutors.intEnv("DATA_VERSION_POLL_MS", 1000));
+        } catch (SQLException e) {
+            System.err.println("Failed to read data version: " + e.getMessage());
+        }
+
+        // Newest reading per location in memory, for /latest and limit=1&order=desc
+        try {
+            LatestStore.start();
+        } catch (SQLException e) {
+            System.err.println("Failed to load latest readings: " + e.getMessage());
+        }
+
+        // Optional in-process ingestion, instead of running the loaders from cron
+        if ("true".equalsIgnoreCase(System.getenv("INGEST_SCHEDULER"))) {
+            try {
+                Dotenv env = Dotenv.configure().ignoreIfMissing().load();
+                scheduler = IngestionScheduler.start(env, IngestionEngine.locations(env), null);
+            } catch (SQLException | IOException e) {
+                System.err.println("Failed to start ingestion scheduler: " + e.getMessage());
+            }
+        }
+
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
         // AQI endpoints
-        server.createContext("/airquality", new GetAllHandler("user_DataAirQuality"));
-        server.createContext("/airquality/", new GetByIdHandler("user_DataAirQuality"));
+        server.createContext("/airquality", instrument("/airquality", new GetAllHandler("user_DataAirQuality")));
+        server.createContext("/airquality/", instrument("/airquality/{id}", new GetByIdHandler("user_DataAirQuality")));
 
         // UV endpoints
-        server.createContext("/uv", new GetAllHandler("user_DataUV"));
-        server.createContext("/uv/", new GetByIdHandler("user_DataUV"));
+        server.createContext("/uv", instrument("/uv", new GetAllHandler("user_DataUV")));
+        server.createContext("/uv/", instrument("/uv/{id}", new GetByIdHandler("user_DataUV")));
+
+        // Newest readings for a list of locations, or for those nearest a point
+        server.createContext("/latest", instrument("/latest", new LatestHandler()));
+        server.createContext("/nearest", instrument("/nearest", new NearestHandler()));
+
+        // Hourly and daily rollups
+        server.createContext("/aggregate", instrument("/aggregate", new AggregateHandler()));
+
+        // Long-poll for the next data version, for class-api's change feed
+        server.createContext("/changes", new ChangesHandler());
 
         // Generic endpoints
-        server.createContext("/table", new GenericGetAllHandler());
-        server.createContext("/table/", new GenericGetByIdHandler());
+        server.createContext("/table", instrument("/table", new GenericGetAllHandler()));
+        server.createContext("/table/", instrument("/table/{name}/{id}", new GenericGetByIdHandler()));
 
-        server.setExecutor(null);
+        server.createContext("/health", new HealthHandler());
+        server.createContext("/metrics", Metrics::handle);
+
+        server.setExecutor(executor.executor());
         server.start();
-        System.out.println("Server started on http://localhost:" + port);
+        System.out.println("Server started on http://localhost:" + server.getAddress().getPort() + " (" + executor + ")");
+        return server;
     }
 
     static class GetAllHandler implements HttpHandler {
         private final String tableName;
         GetAllHandler(String tableName) { this.tableName = tableName; }
 
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            list(exchange, SchemaRegistry.table(tableName));
+        }
+    }
+
+    static class GetByIdHandler implements HttpHandler {
+        private final String tableName;
+        GetByIdHandler(String tableName) { this.tableName = tableName; }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String[] parts = path.split("/");
+
+            if (parts.length < 3 || parts[2].isEmpty()) {
+                sendResponse(exchange, 400, "{\"error\": \"Missing ID\"}");
+                return;
+            }
+
+            byId(exchange, SchemaRegistry.table(tableName), parts[2]);
+        }
+    }
+
+    // Generic GET all records; only tables in the schema registry are served
+    static class GenericGetAllHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String tableName = queryParams(exchange).get("name");
+            if (tableName == null || tableName.isEmpty()) {
+                sendResponse(exchange, 400, "{\"error\":\"Missing table name\"}");
+                return;
+            }
+            list(exchange, SchemaRegistry.table(tableName));
+        }
+    }
+
+    // Generic GET by ID
+    static class GenericGetByIdHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath(); // /table/tableName/id
+            String[] parts = path.split("/");
+            if (parts.length != 4 || parts[3].isEmpty()) {
+                sendResponse(exchange, 400, "{\"error\":\"Usage: /table/{tableName}/{id}\"}");
+                return;
+            }
+            byId(exchange, SchemaRegistry.table(parts[2]), parts[3]);
+        }
+    }
+
+    // GET /latest?locations=lat,lon;lat,lon -> {"locations":[{"latitude","longitude","airquality":{..},"uv":{..}}]}
+    // Answered from the LatestStore; when it is behind, both metrics for every location
+    // come from one query each, on one connection.
+    static class LatestHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
                 sendResponse(exchange, 405, "Method Not Allowed");
                 return;
             }
+            List<Location> locations;
+            try {
+                locations = Location.parseList(queryParams(exchange).get("locations"), MAX_LOCATIONS);
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", e.getMessage())));
+                return;
+            }
 
-            ArrayList<Map<String, Object>> results = new ArrayList<>();
+            String key = cacheKey(exchange);
+            long version = DataVersion.current();
+            String etag = ETags.of(version, key);
+            if (notModified(exchange, etag)) return;
 
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                 Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName)) {
+            ResponseCache.Entry cached = cache.get(key, version);
+            if (cached != null) {
+                sendCached(exchange, key, cached);
+                return;
+            }
 
-                ResultSetMetaData meta = rs.getMetaData();
-                int columnCount = meta.getColumnCount();
+            sendLatest(exchange, key, version, locations, null);
+        }
+    }
 
-                while (rs.next()) {
-                    Map<String, Object> row = new HashMap<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        row.put(meta.getColumnName(i), rs.getObject(i));
-                    }
-                    results.add(row);
-                }
+    // GET /nearest?lat=&lon=&k=5 -> {"locations":[{"latitude","longitude","distanceKm","airquality":{..},"uv":{..}}]}
+    // The k known locations nearest the point, closest first, with their newest readings.
+    // Locations come from the LatestStore's index, so this needs LATEST_STORE on.
+    static class NearestHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            double lat, lon;
+            int k;
+            try {
+                lat = coordinate(params, "lat", 90);
+                lon = coordinate(params, "lon", 180);
+                k = params.get("k") == null ? 5 : Integer.parseInt(params.get("k"));
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "{\"error\":\"k must be a number\"}");
+                return;
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", e.getMessage())));
+                return;
+            }
+            if (k < 1 || k > MAX_LOCATIONS) {
+                sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", "k must be between 1 and " + MAX_LOCATIONS)));
+                return;
+            }
+            if (LatestStore.synced() < 0) {
+                sendResponse(exchange, 503, "{\"error\":\"Location index not loaded\"}");
+                return;
+            }
 
-                sendResponse(exchange, 200, mapper.writeValueAsString(results));
+            String key = cacheKey(exchange);
+            long version = DataVersion.current();
+            String etag = ETags.of(version, key);
+            if (notModified(exchange, etag)) return;
 
+            ResponseCache.Entry cached = cache.get(key, version);
+            if (cached != null) {
+                sendCached(exchange, key, cached);
+                return;
+            }
+
+            List<NearestIndex.Hit> hits = LatestStore.locations().nearest(lat, lon, k);
+            List<Location> locations = new ArrayList<>(hits.size());
+            double[] distances = new double[hits.size()];
+            for (int i = 0; i < distances.length; i++) {
+                locations.add(hits.get(i).location());
+                distances[i] = hits.get(i).distanceKm();
+            }
+            sendLatest(exchange, key, version, locations, distances);
+        }
+
+        private static double coordinate(Map<String, String> params, String name, double max) {
+            String v = params.get(name);
+            if (v == null || v.isBlank()) throw new IllegalArgumentException(name + " is required");
+            double d;
+            try {
+                d = Double.parseDouble(v.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " must be a number");
+            }
+            if (!(d >= -max && d <= max)) throw new IllegalArgumentException(name + " must be between -" + (int) max + " and " + (int) max);
+            return d;
+        }
+    }
+
+    // Newest AQI and UV reading at each location, from the LatestStore or, when it is behind, one
+    // query per metric. distances, when given, adds distanceKm to each location.
+    private static void sendLatest(HttpExchange exchange, String key, long version, List<Location> locations,
+                                   double[] distances) throws IOException {
+        ReadingRows.Row[] aqi = LatestStore.latest(ReadingStore.Metric.AQI, locations, version);
+        ReadingRows.Row[] uv = LatestStore.latest(ReadingStore.Metric.UV, locations, version);
+        if (aqi == null || uv == null) {
+            try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+                long queryStart = System.nanoTime();
+                aqi = ReadingRows.latest(conn, ReadingStore.Metric.AQI, locations);
+                uv = ReadingRows.latest(conn, ReadingStore.Metric.UV, locations);
+                LATEST_QUERY.recordSince(queryStart);
             } catch (SQLException e) {
                 e.printStackTrace();
                 sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+                return;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * locations.size());
+        try (JsonGenerator gen = mapper.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("locations");
+            for (int i = 0; i < locations.size(); i++) {
+                gen.writeStartObject();
+                gen.writeNumberField("latitude", locations.get(i).latitude());
+                gen.writeNumberField("longitude", locations.get(i).longitude());
+                if (distances != null) gen.writeNumberField("distanceKm", Math.round(distances[i] * 1000) / 1000.0);
+                gen.writeFieldName("airquality");
+                writeRow(gen, aqi[i]);
+                gen.writeFieldName("uv");
+                writeRow(gen, uv[i]);
+                gen.writeEndObject();
             }
+            gen.writeEndArray();
+            gen.writeEndObject();
         }
+        sendResponse(exchange, key, out.toByteArray(), version);
     }
 
-    static class GetByIdHandler implements HttpHandler {
-        private final String tableName;
-        GetByIdHandler(String tableName) { this.tableName = tableName; }
+    private static void writeRow(JsonGenerator gen, ReadingRows.Row row) throws IOException {
+        if (row == null) gen.writeNull(); else ReadingRows.write(gen, row);
+    }
 
+    // GET /aggregate?metric=airquality|uv&bucket=hour|day&from=&to=&locations=lat,lon;...
+    //   -> {"metric","bucket","rows":[{"latitude","longitude","start","count","min","max","avg"}]}
+    // Reads the precomputed rollups, never the raw readings. from/to select bucket starts,
+    // from inclusive and to exclusive; without locations every location is returned.
+    static class AggregateHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String path = exchange.getRequestURI().getPath();
-            String[] parts = path.split("/");
-
-            if (parts.length < 3 || parts[2].isEmpty()) {
-                sendResponse(exchange, 400, "{\"error\": \"Missing ID\"}");
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            ReadingStore.Metric metric;
+            Rollups.Bucket bucket;
+            String from, to;
+            List<Location> locations;
+            try {
+                metric = Rollups.parseMetric(params.get("metric"));
+                bucket = Rollups.Bucket.parse(params.get("bucket"));
+                from = ListQuery.parseTime("from", params.get("from"));
+                to = ListQuery.parseTime("to", params.get("to"));
+                String locationParam = params.get("locations");
+                locations = locationParam == null || locationParam.isBlank()
+                        ? List.of() : Location.parseList(locationParam, MAX_LOCATIONS);
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", e.getMessage())));
                 return;
             }
 
-            String id = parts[2];
-
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                 PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM " + tableName + " WHERE id = ?")) {
-                pstmt.setString(1, id);
+            String key = cacheKey(exchange);
+            long version = DataVersion.current();
+            String etag = ETags.of(version, key);
+            if (notModified(exchange, etag)) return;
 
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    ResultSetMetaData meta = rs.getMetaData();
-                    ObjectNode jsonNode = mapper.createObjectNode();
-                    for (int i = 1; i <= meta.getColumnCount(); i++) {
-                        jsonNode.put(meta.getColumnName(i), rs.getString(i));
-                    }
-                    sendResponse(exchange, 200, mapper.writeValueAsString(jsonNode));
-                } else {
-                    sendResponse(exchange, 404, "{\"error\": \"Record not found\"}");
-                }
+            ResponseCache.Entry cached = cache.get(key, version);
+            if (cached != null) {
+                sendCached(exchange, key, cached);
+                return;
+            }
 
+            List<Rollups.Row> rows;
+            try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+                long queryStart = System.nanoTime();
+                rows = Rollups.query(conn, metric, bucket, from, to, locations, MAX_AGGREGATE_ROWS + 1);
+                AGGREGATE_QUERY.recordSince(queryStart);
             } catch (SQLException e) {
                 e.printStackTrace();
                 sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+                return;
+            }
+            if (rows.size() > MAX_AGGREGATE_ROWS) {
+                sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error",
+                        "more than " + MAX_AGGREGATE_ROWS + " buckets; narrow from/to or locations")));
+                return;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 + 128 * rows.size());
+            try (JsonGenerator gen = mapper.createGenerator(out)) {
+                gen.writeStartObject();
+                gen.writeStringField("metric", metric == ReadingStore.Metric.AQI ? "airquality" : "uv");
+                gen.writeStringField("bucket", bucket.param());
+                gen.writeArrayFieldStart("rows");
+                for (Rollups.Row r : rows) {
+                    gen.writeStartObject();
+                    gen.writeNumberField("latitude", r.latitude());
+                    gen.writeNumberField("longitude", r.longitude());
+                    gen.writeStringField("start", r.start());
+                    gen.writeNumberField("count", r.count());
+                    gen.writeNumberField("min", r.min());
+                    gen.writeNumberField("max", r.max());
+                    gen.writeNumberField("avg", r.avg());
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+                gen.writeEndObject();
             }
+            sendResponse(exchange, key, out.toByteArray(), version);
         }
     }
 
-    // Generic GET all records
-    static class GenericGetAllHandler implements HttpHandler {
+    // GET /changes?since=V&timeout=MS -> {"version": N}, as soon as N > V or when the timeout (max 60s) passes.
+    // Not instrumented: its latency is mostly waiting and would swamp the request histograms.
+    static class ChangesHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String query = exchange.getRequestURI().getQuery();
-            if (query == null || !query.startsWith("name=")) {
-                sendResponse(exchange, 400, "{\"error\":\"Missing table name\"}");
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendResponse(exchange, 405, "Method Not Allowed");
                 return;
             }
-            String tableName = query.substring(5);
-            new GetAllHandler(tableName).handle(exchange);
+            Map<String, String> params = queryParams(exchange);
+            long since = ChangeFeed.sinceParam(params.get("since"));
+            long timeout = ChangeFeed.timeoutParam(params.get("timeout"), 25_000, 60_000);
+            long version;
+            try {
+                version = DataVersion.await(since, timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                version = DataVersion.current();
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            sendResponse(exchange, 200, "{\"version\":" + version + "}");
         }
     }
 
-    // Generic GET by ID
-    static class GenericGetByIdHandler implements HttpHandler {
+    private static void list(HttpExchange exchange, SchemaRegistry.Table table) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        if (table == null) {
+            sendResponse(exchange, 404, "{\"error\":\"Unknown table\"}");
+            return;
+        }
+
+        ListQuery query;
+        try {
+            query = ListQuery.parse(queryParams(exchange));
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", e.getMessage())));
+            return;
+        }
+        String unsupported = table.unsupported(query);
+        if (unsupported != null) {
+            sendResponse(exchange, 400, mapper.writeValueAsString(Map.of("error", unsupported)));
+            return;
+        }
+
+        // read the version before the query so a concurrent load can only make the entry stale
+        String key = table.versioned ? cacheKey(exchange) : null;
+        long version = DataVersion.current();
+        if (key != null && notModified(exchange, ETags.of(version, key))) return;
+
+        ResponseCache.Entry cached = key == null ? null : cache.get(key, version);
+        if (cached != null) {
+            sendCached(exchange, key, cached);
+            return;
+        }
+
+        ReadingStore.Metric metric = ReadingStore.Metric.forTable(table.name);
+        LatestStore.Newest newest = metric != null && query.newestOnly() ? LatestStore.newest(metric, version) : null;
+        if (newest != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(160);
+            try (JsonGenerator gen = mapper.createGenerator(out)) {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("items");
+                if (newest.row() != null) ReadingRows.write(gen, newest.row());
+                gen.writeEndArray();
+                gen.writeStringField("nextCursor", newest.more()
+                        ? query.cursorFor(newest.row().id(), newest.row().dateTime()) : null);
+                gen.writeEndObject();
+            }
+            sendResponse(exchange, key, out.toByteArray(), version);
+            return;
+        }
+
+        if (!query.paged()) {
+            writeChunked(exchange, table, query, key, version);
+            return;
+        }
+
+        // a page is at most MAX_LIMIT + 1 rows: read it all, give the connection back, then send
+        byte[] body;
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            PreparedStatement pstmt = conn.prepare(table.listSql(query));
+            query.bind(pstmt);
+
+            long queryStart = System.nanoTime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256 * Math.min(query.limit, 64));
+            try (ResultSet rs = pstmt.executeQuery(); JsonGenerator gen = mapper.createGenerator(out)) {
+                LIST_QUERY.recordSince(queryStart);
+                writeJson(gen, rs, query, rowWriter(rs, table.name));
+            }
+            body = out.toByteArray();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            return;
+        }
+        sendResponse(exchange, key, body, version);
+    }
+
+    private static void byId(HttpExchange exchange, SchemaRegistry.Table table, String id) throws IOException {
+        if (table == null) {
+            sendResponse(exchange, 404, "{\"error\":\"Unknown table\"}");
+            return;
+        }
+
+        String key = table.versioned ? cacheKey(exchange) : null;
+        long version = DataVersion.current();
+        if (key != null && notModified(exchange, ETags.of(version, key))) return;
+
+        ResponseCache.Entry cached = key == null ? null : cache.get(key, version);
+        if (cached != null) {
+            sendCached(exchange, key, cached);
+            return;
+        }
+
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            PreparedStatement pstmt = conn.prepare(table.byIdSql);
+            pstmt.setString(1, id);
+
+            long queryStart = System.nanoTime();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                BY_ID_QUERY.recordSince(queryStart);
+                if (rs.next()) {
+                    byte[] body = rowJson(rs, table.name);
+                    sendResponse(exchange, key, body, version);
+                } else {
+                    sendResponse(exchange, 404, "{\"error\": \"Record not found\"}");
+                }
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
+
+    private static HttpHandler instrument(String route, HttpHandler handler) {
+        return Metrics.instrument("data-api", route, handler);
+    }
+
+    // Pool, executor and cache metrics
+    static class HealthHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String path = exchange.getRequestURI().getPath(); // /table/tableName/id
-            String[] parts = path.split("/");
-            if (parts.length != 4) {
-                sendResponse(exchange, 400, "{\"error\":\"Usage: /table/{tableName}/{id}\"}");
-                return;
+            Map<String, Object> body = new HashMap<>();
+            body.put("status", "ok");
+            try {
+                body.put("pool", DatabaseHelper.pool().stats());
+            } catch (SQLException e) {
+                body.put("pool", Map.of("error", String.valueOf(e.getMessage())));
             }
-            String tableName = parts[2];
-            String id = parts[3];
+            body.put("executor", executor.stats());
+            body.put("cache", cache.stats());
+            body.put("dataVersion", DataVersion.current());
+            body.put("schema", SchemaRegistry.stats());
+            body.put("latestStore", LatestStore.stats());
+            body.put("locations", LatestStore.locations().size());
+            if (scheduler != null) body.put("ingestion", scheduler.stats());
+            sendResponse(exchange, 200, mapper.writeValueAsString(body));
+        }
+    }
+
+    // An unpaged list, read LIST_CHUNK_ROWS rows at a time by keyset, each chunk on a pooled
+    // connection that is given back before the chunk is written. A slow client then holds no
+    // connection, and memory stays at one chunk however many rows the table has.
+    // Streaming mode sends each chunk as it is read (chunked, compressed on the fly when the client
+    // accepts it); buffered mode collects the whole array first. Either way the plain JSON ends up
+    // in the response cache if it fits and the table is versioned.
+    private static void writeChunked(HttpExchange exchange, SchemaRegistry.Table table, ListQuery query,
+                                     String cacheKey, long version) throws IOException {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(8192);
+        OutputStream out = null;
+        ByteArrayOutputStream buffer = null;
+        ResponseCache.Capture capture = null;
+        JsonGenerator gen = mapper.createGenerator(chunk);
+        try {
+            gen.writeStartArray();
+            ListQuery next = query.chunk(LIST_CHUNK_ROWS);
+            while (next != null) {
+                try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+                    PreparedStatement pstmt = conn.prepare(table.listSql(next));
+                    next.bind(pstmt);
+                    long queryStart = System.nanoTime();
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        LIST_QUERY.recordSince(queryStart);
+                        next = writeChunk(gen, rs, next, rowWriter(rs, table.name));
+                    }
+                }
+                if (next == null) gen.writeEndArray();
+                gen.flush();
 
-            new GetByIdHandler(tableName) {
-                @Override
-                public void handle(HttpExchange ex) throws IOException {
-                    ex.setAttribute("idParam", id);
-                    super.handle(ex);
+                if (out == null) {
+                    if (STREAM_LISTS) {
+                        Compression.Coding coding = Compression.negotiate(acceptEncoding(exchange));
+                        contentHeaders(exchange, coding);
+                        exchange.sendResponseHeaders(200, 0);
+                        out = Compression.encoder(exchange.getResponseBody(), coding);
+                        if (cacheKey != null && cache.enabled()) {
+                            out = capture = new ResponseCache.Capture(out, cache.maxEntryBytes());
+                        }
+                    } else {
+                        out = buffer = new ByteArrayOutputStream();
+                    }
                 }
-            }.handle(exchange);
+                chunk.writeTo(out);
+                chunk.reset();
+            }
+        } catch (SQLException e) {
+            if (out == null || buffer != null) {
+                e.printStackTrace();
+                sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            } else {
+                // Headers are already out, so all we can do is cut the response short
+                System.err.println("Aborted streaming response: " + e.getMessage());
+                exchange.close();
+            }
+            return;
+        }
+        gen.close();
+
+        if (buffer != null) {
+            sendResponse(exchange, cacheKey, buffer.toByteArray(), version);
+            return;
         }
+        out.close();
+        byte[] body = capture == null ? null : capture.captured();
+        if (body != null) cache.put(cacheKey, body, version);
+    }
+
+    // Writes up to query.limit rows; returns the query for the next chunk, or null after the last row
+    private static ListQuery writeChunk(JsonGenerator gen, ResultSet rs, ListQuery query, RowWriter rows)
+            throws SQLException, IOException {
+        int idColumn = rs.findColumn("id");
+        int timeColumn = query.key == ListQuery.Key.DATETIME ? rs.findColumn("dateTime") : 0;
+        int written = 0;
+        long lastId = 0;
+        String lastTime = null;
+        while (rs.next()) {
+            if (written == query.limit) return query.after(lastId, lastTime);
+            rows.write(gen, rs);
+            lastId = rs.getLong(idColumn);
+            if (timeColumn > 0) lastTime = rs.getString(timeColumn);
+            written++;
+        }
+        return null;
+    }
+
+    // Writes the current row as a JSON object; chosen once per result set
+    interface RowWriter {
+        void write(JsonGenerator gen, ResultSet rs) throws SQLException, IOException;
+    }
+
+    // Typed for the reading tables (native numbers, no per-cell boxing), column by column for anything else
+    static RowWriter rowWriter(ResultSet rs, String tableName) throws SQLException {
+        ReadingStore.Metric metric = ReadingStore.Metric.forTable(tableName);
+        ReadingRows.Columns columns = metric == null ? null : ReadingRows.Columns.of(rs, metric);
+        if (columns != null) {
+            return (gen, row) -> ReadingRows.write(gen, row, columns);
+        }
+
+        ResultSetMetaData meta = rs.getMetaData();
+        SerializableString[] names = new SerializableString[meta.getColumnCount() + 1];
+        for (int i = 1; i < names.length; i++) {
+            names[i] = new SerializedString(meta.getColumnName(i));
+        }
+        return (gen, row) -> {
+            gen.writeStartObject();
+            for (int i = 1; i < names.length; i++) {
+                gen.writeFieldName(names[i]);
+                writeValue(gen, row.getObject(i));
+            }
+            gen.writeEndObject();
+        };
+    }
+
+    // The current row as a JSON object
+    static byte[] rowJson(ResultSet rs, String tableName) throws SQLException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator gen = mapper.createGenerator(out)) {
+            rowWriter(rs, tableName).write(gen, rs);
+        }
+        return out.toByteArray();
+    }
+
+    // The JSON body for a list query, written as the rows come off the ResultSet.
+    static void writeJson(JsonGenerator gen, ResultSet rs, ListQuery query, RowWriter rows)
+            throws SQLException, IOException {
+        int idColumn = query.paged() ? rs.findColumn("id") : 0;
+        int timeColumn = query.paged() && query.key == ListQuery.Key.DATETIME ? rs.findColumn("dateTime") : 0;
+        if (query.paged()) {
+            gen.writeStartObject();
+            gen.writeFieldName("items");
+        }
+        gen.writeStartArray();
+
+        int written = 0;
+        long lastId = 0;
+        String lastTime = null;
+        boolean more = false;
+        while (rs.next()) {
+            if (query.paged() && written == query.limit) {
+                more = true;
+                break;
+            }
+            rows.write(gen, rs);
+            if (query.paged()) {
+                lastId = rs.getLong(idColumn);
+                if (timeColumn > 0) lastTime = rs.getString(timeColumn);
+            }
+            written++;
+        }
+        gen.writeEndArray();
+
+        if (query.paged()) {
+            gen.writeStringField("nextCursor", more ? query.cursorFor(lastId, lastTime) : null);
+            gen.writeEndObject();
+        }
+    }
+
+    private static void writeValue(JsonGenerator gen, Object value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof Integer i) {
+            gen.writeNumber(i);
+        } else if (value instanceof Long l) {
+            gen.writeNumber(l);
+        } else if (value instanceof Double d) {
+            gen.writeNumber(d);
+        } else if (value instanceof String str) {
+            gen.writeString(str);
+        } else {
+            gen.writeObject(value);
+        }
+    }
+
+    // Sets the ETag and answers 304 if the client already has this version, plain or compressed
+    private static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        exchange.getResponseHeaders().set("ETag", etag);
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) return false;
+        String compressed = Compression.etag(etag, Compression.negotiate(acceptEncoding(exchange)));
+        String matched = ETags.matches(ifNoneMatch, etag) ? etag
+                : ETags.matches(ifNoneMatch, compressed) ? compressed : null;
+        if (matched == null) return false;
+        exchange.getResponseHeaders().set("ETag", matched);
+        Compression.headers(exchange.getResponseHeaders(), Compression.Coding.IDENTITY);
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    private static String cacheKey(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        String path = exchange.getRequestURI().getRawPath();
+        return query == null ? path : path + "?" + query;
+    }
+
+    static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return params;
     }
 
     private static void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().add("Content-Type", "application/json");
-        byte[] bytes = response.getBytes();
+        sendResponse(exchange, statusCode, response.getBytes());
+    }
+
+    private static void sendResponse(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
+        // only successful bodies are tagged, and only they are worth compressing
+        if (statusCode != 200) exchange.getResponseHeaders().remove("ETag");
+        Compression.Coding coding = statusCode == 200
+                ? Compression.negotiate(acceptEncoding(exchange), bytes.length) : Compression.Coding.IDENTITY;
+        send(exchange, statusCode, Compression.encode(bytes, coding), coding);
+    }
+
+    // A fresh 200 body: cached, then sent from the cache entry so a compressed copy is kept with it
+    // A null cacheKey sends the body uncached, for tables the data version doesn't cover
+    private static void sendResponse(HttpExchange exchange, String cacheKey, byte[] body, long version) throws IOException {
+        ResponseCache.Entry entry = cacheKey == null ? null : cache.put(cacheKey, body, version);
+        if (entry != null) {
+            sendCached(exchange, cacheKey, entry);
+        } else {
+            sendResponse(exchange, 200, body);
+        }
+    }
+
+    private static void sendCached(HttpExchange exchange, String cacheKey, ResponseCache.Entry entry) throws IOException {
+        Compression.Coding coding = Compression.negotiate(acceptEncoding(exchange), entry.body.length);
+        send(exchange, 200, cache.body(cacheKey, entry, coding), coding);
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, byte[] bytes, Compression.Coding coding) throws IOException {
+        contentHeaders(exchange, coding);
         exchange.sendResponseHeaders(statusCode, bytes.length);
         try (OutputStream os = exchange.getResponseBody()) {
             os.write(bytes);
         }
     }
 
-    // Resequence IDs in the user data tables to be consecutive starting from 1
-    private static void resequenceIds(String tableName) {
-        // Create a temporary table with ordered IDs
-        String tempTable = tableName + "_temp";
-        // SQL to resequence IDs
-        String sql = """
-        BEGIN TRANSACTION;
-        CREATE TEMP TABLE %s AS SELECT * FROM %s ORDER BY id;
-        DELETE FROM %s;
-        DELETE FROM sqlite_sequence WHERE name = '%s';
-        INSERT INTO %s (latitude, longitude, %s, dateTime)
-        SELECT latitude, longitude, %s, dateTime FROM %s;
-        DROP TABLE %s;
-        COMMIT;
-        """.formatted(
-            tempTable, tableName,
-            tableName,
-            tableName,
-            tableName,                                
-            tableName.contains("AirQuality") ? "air_quality" : "uv_index",
-            tableName.contains("AirQuality") ? "air_quality" : "uv_index",
-            tempTable,
-            tempTable
-        );
-
-        // Execute the resequencing
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-        Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(sql);
-            System.out.println("Reindexed IDs for table " + tableName);
-        } catch (SQLException e) {
-        System.err.println("Failed to resequence IDs: " + e.getMessage());
-        }
+    // Content-Type and Content-Encoding, with the ETag marked for the coding actually sent
+    private static void contentHeaders(HttpExchange exchange, Compression.Coding coding) {
+        Headers headers = exchange.getResponseHeaders();
+        String etag = headers.getFirst("ETag");
+        if (etag != null) headers.set("ETag", Compression.etag(etag, coding));
+        Compression.headers(headers, coding);
+        headers.add("Content-Type", "application/json");
+    }
+
+    private static String acceptEncoding(HttpExchange exchange) {
+        return exchange.getRequestHeaders().getFirst("Accept-Encoding");
     }
 }
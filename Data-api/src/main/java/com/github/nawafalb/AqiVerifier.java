@@ -19,24 +19,30 @@ public class AqiVerifier {
 
             List<String> lines = Files.readAllLines(path);
             int expectedCount = -1;
+            String loadedAt = null;
             for (String line : lines) {
                 if (line.startsWith("Rows inserted:")) {
                     expectedCount = Integer.parseInt(line.replace("Rows inserted:", "").trim());
+                } else if (line.startsWith("Timestamp:")) {
+                    loadedAt = line.replace("Timestamp:", "").trim();
                 }
             }
 
-            if (expectedCount == -1) {
-                System.err.println("Could not find 'Rows inserted' in summary file");
+            if (expectedCount == -1 || loadedAt == null) {
+                System.err.println("Could not find 'Rows inserted' and 'Timestamp' in summary file");
                 return;
             }
 
             // Count rows in user_DataAirQuality
             int actualCount = 0;
             try (Connection conn = DriverManager.getConnection(dbUrl);
-                 Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) AS n FROM user_DataAirQuality")) {
-                if (rs.next()) {
-                    actualCount = rs.getInt("n");
+                 PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) AS n FROM user_DataAirQuality WHERE dateTime >= ?")) {
+                // the table keeps history, so only count what the last load wrote
+                stmt.setString(1, loadedAt);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        actualCount = rs.getInt("n");
+                    }
                 }
             }
 
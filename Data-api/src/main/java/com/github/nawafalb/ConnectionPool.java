@@ -0,0 +1,170 @@
+package com.github.nawafalb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size pool of long-lived SQLite connections.
+ * Connections are opened once in WAL mode and handed out with a bounded wait;
+ * each one keeps its own cache of prepared statements keyed by SQL text.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final long maxWaitMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+
+    // metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public ConnectionPool(String url, int size, long maxWaitMillis) throws SQLException {
+        if (size < 1) throw new IllegalArgumentException("pool size must be >= 1");
+        this.url = url;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idle = new ArrayBlockingQueue<>(size);
+
+        for (int i = 0; i < size; i++) {
+            PooledConnection pc = new PooledConnection(open());
+            all.add(pc);
+            idle.add(pc);
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            // WAL lets readers run while a loader is writing
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+        return conn;
+    }
+
+    /** Borrow a connection, waiting at most the configured time. Close the result to return it. */
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        PooledConnection pc;
+        try {
+            pc = idle.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a pooled connection", e);
+        }
+        waitNanos.add(System.nanoTime() - start);
+
+        if (pc == null) {
+            timeouts.increment();
+            throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a pooled connection");
+        }
+
+        checkouts.increment();
+        active.incrementAndGet();
+        pc.checkedOut = true;
+        return pc;
+    }
+
+    private void release(PooledConnection pc) {
+        if (!pc.checkedOut) return;
+        pc.checkedOut = false;
+
+        try {
+            if (pc.conn.isClosed()) {
+                pc.reopen(open());
+            } else if (!pc.conn.getAutoCommit()) {
+                // caller left a transaction open; don't leak it to the next borrower
+                pc.conn.rollback();
+                pc.conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to reset pooled connection: " + e.getMessage());
+        }
+
+        active.decrementAndGet();
+        idle.offer(pc);
+    }
+
+    public void close() {
+        for (PooledConnection pc : all) {
+            pc.closeQuietly();
+        }
+    }
+
+    // -------- metrics --------
+    public int size() { return all.size(); }
+    public int active() { return active.get(); }
+    public int idle() { return idle.size(); }
+    public long checkouts() { return checkouts.sum(); }
+    public long timeouts() { return timeouts.sum(); }
+    public long totalWaitMillis() { return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()); }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("size", size());
+        m.put("active", active());
+        m.put("idle", idle());
+        m.put("checkouts", checkouts());
+        m.put("timeouts", timeouts());
+        m.put("totalWaitMs", totalWaitMillis());
+        return m;
+    }
+
+    /**
+     * A borrowed connection. Statements from {@link #prepare(String)} are owned by
+     * the pool and must not be closed by the caller; close their ResultSets instead.
+     */
+    public class PooledConnection implements AutoCloseable {
+        private Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private volatile boolean checkedOut;
+
+        private PooledConnection(Connection conn) { this.conn = conn; }
+
+        public Connection connection() { return conn; }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                ps.clearParameters();
+            }
+            return ps;
+        }
+
+        private void reopen(Connection fresh) {
+            closeQuietly();
+            conn = fresh;
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (SQLException ignored) { }
+            }
+            statements.clear();
+            try { conn.close(); } catch (SQLException ignored) { }
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.nawafalb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Counter that goes up every time reading data changes. It is stored in the
+ * database because the loaders run as separate processes: writers bump it in
+ * SQLite after they commit, and the API server polls it so cached responses
+ * can be dropped as soon as the data they were built from is out of date.
+ * {@link #await} lets the /changes long-poll wait for the next bump.
+ */
+public class DataVersion {
+
+    private static final VersionSignal current = new VersionSignal();
+    private static ScheduledExecutorService poller;
+
+    private DataVersion() { }
+
+    static void ensureSchema(Statement stmt) throws SQLException {
+        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS data_version (id INTEGER PRIMARY KEY CHECK (id = 1), version INTEGER NOT NULL)");
+        stmt.executeUpdate("INSERT OR IGNORE INTO data_version (id, version) VALUES (1, 1)");
+    }
+
+    /** Last version seen by this process. */
+    public static long current() {
+        return current.get();
+    }
+
+    /** The version once it is past {@code since}, or the current one after {@code timeoutMillis}. */
+    public static long await(long since, long timeoutMillis) throws InterruptedException {
+        return current.await(since, timeoutMillis);
+    }
+
+    /** Called with each new version this process sees, on the thread that saw it. */
+    static void onChange(LongConsumer listener) {
+        current.onChange(listener);
+    }
+
+    /** Bumps the stored version; call after the write it describes has committed. */
+    public static long bump(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("UPDATE data_version SET version = version + 1 WHERE id = 1");
+        }
+        return refresh(conn);
+    }
+
+    static long refresh(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM data_version WHERE id = 1")) {
+            long v = rs.next() ? rs.getLong(1) : 0;
+            current.publish(v);
+            return v;
+        }
+    }
+
+    // Picks up bumps made by other processes (the loaders)
+    public static synchronized void startPolling(long intervalMillis) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            refresh(conn.connection());
+        }
+        if (poller != null) return;
+
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "data-version-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+                refresh(conn.connection());
+            } catch (SQLException e) {
+                System.err.println("Failed to poll data version: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
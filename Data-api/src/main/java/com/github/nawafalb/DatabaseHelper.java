@@ -1,13 +1,42 @@
 package com.github.nawafalb;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DatabaseHelper {
-  private static final String URL = "jdbc:sqlite:src/db/userData.db";
+  // DB_URL (env, or -Ddb.url for in-process runs) overrides the default file
+  static final String URL = System.getProperty("db.url",
+      System.getenv().getOrDefault("DB_URL", "jdbc:sqlite:src/db/userData.db"));
 
-  public static Connection connect() throws SQLException {
-    return DriverManager.getConnection(URL);
+  private static final int POOL_SIZE = ServerExecutors.intEnv("DB_POOL_SIZE", 4);
+  private static final long POOL_WAIT_MS = ServerExecutors.intEnv("DB_POOL_WAIT_MS", 2000);
+
+  private static volatile ConnectionPool pool;
+
+  // Shared pool, opened on first use
+  public static ConnectionPool pool() throws SQLException {
+    ConnectionPool p = pool;
+    if (p == null) {
+      synchronized (DatabaseHelper.class) {
+        p = pool;
+        if (p == null) {
+          pool = p = new ConnectionPool(URL, POOL_SIZE, POOL_WAIT_MS);
+          register(p);
+        }
+      }
+    }
+    return p;
+  }
+
+  private static void register(ConnectionPool p) {
+    Metrics.gauge("db_pool_active", "Connections checked out", p::active, "service", "data-api");
+    Metrics.gauge("db_pool_idle", "Connections waiting to be borrowed", p::idle, "service", "data-api");
+    Metrics.counter("db_pool_checkouts_total", "Connections handed out", p::checkouts, "service", "data-api");
+    Metrics.counter("db_pool_timeouts_total", "Borrows that gave up waiting", p::timeouts, "service", "data-api");
+    Metrics.counter("db_pool_wait_seconds_total", "Time spent waiting to borrow a connection",
+        () -> p.totalWaitMillis() / 1000.0, "service", "data-api");
+  }
+
+  public static ConnectionPool.PooledConnection connect() throws SQLException {
+    return pool().borrow();
   }
 }
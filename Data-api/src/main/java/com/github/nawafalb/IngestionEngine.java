@@ -0,0 +1,225 @@
+package com.github.nawafalb;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Fetches readings for many locations from many providers at once and
+ * writes them in batches.
+ *
+ * Every (provider, location) pair is fetched on its own virtual thread.
+ * Each provider's {@link RateLimiter} paces its calls, and at most
+ * INGEST_MAX_IN_FLIGHT requests are open at a time. Results are written by
+ * a single writer, INGEST_BATCH_SIZE rows per transaction.
+ *
+ * Run with --stub to use a local {@link ProviderStub} instead of the real
+ * APIs, and --generate=N to make up N locations, e.g. for benchmarking:
+ *   IngestionEngine --stub --generate=1000
+ */
+public class IngestionEngine {
+
+    static final String AQICN_URL = "https://api.waqi.info";
+    static final String OPENUV_URL = "https://api.openuv.io";
+
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Semaphore inFlight;
+    private final int batchSize;
+
+    public record Result(LocalDateTime startedAt, int attempted, int written, int skipped, int failed, long elapsedMillis) {
+        public double perSecond() {
+            return elapsedMillis == 0 ? written : written * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d readings written, %d unchanged, %d failed, %d ms (%.1f/s)",
+                    written, attempted, skipped, failed, elapsedMillis, perSecond());
+        }
+    }
+
+    public IngestionEngine(HttpClient client, int maxInFlight, int batchSize) {
+        this.client = client;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.batchSize = batchSize;
+    }
+
+    public static IngestionEngine fromEnv() {
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        return new IngestionEngine(client,
+                ServerExecutors.intEnv("INGEST_MAX_IN_FLIGHT", 32),
+                ServerExecutors.intEnv("INGEST_BATCH_SIZE", 200));
+    }
+
+    public Result run(List<Location> locations, List<Provider> providers) throws InterruptedException, SQLException {
+        return run(locations, providers, r -> true);
+    }
+
+    /** Like {@link #run(List, List)}, but only readings that pass {@code keep} are written. */
+    public Result run(List<Location> locations, List<Provider> providers,
+                      Predicate<ReadingStore.Reading> keep) throws InterruptedException, SQLException {
+        LocalDateTime startedAt = LocalDateTime.now();
+        long start = System.nanoTime();
+        int attempted = locations.size() * providers.size();
+
+        BlockingQueue<ReadingStore.Reading> ready = new LinkedBlockingQueue<>();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        int written = 0;
+
+        ExecutorService tasks = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (Provider p : providers) {
+                for (Location loc : locations) {
+                    tasks.submit(() -> {
+                        try {
+                            ReadingStore.Reading r = fetch(p, loc);
+                            if (r == null) {
+                                failed.incrementAndGet();
+                            } else if (keep.test(r)) {
+                                ready.add(r);
+                            } else {
+                                skipped.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+            }
+            tasks.shutdown();
+
+            // single writer: SQLite only takes one write transaction at a time anyway
+            List<ReadingStore.Reading> batch = new ArrayList<>(batchSize);
+            while (true) {
+                ReadingStore.Reading r = ready.poll(50, TimeUnit.MILLISECONDS);
+                if (r != null) {
+                    batch.add(r);
+                    ready.drainTo(batch, batchSize - batch.size());
+                }
+                boolean done = r == null && tasks.isTerminated() && ready.isEmpty();
+
+                if (batch.size() >= batchSize || (r == null && !batch.isEmpty())) {
+                    written += ReadingStore.appendBatch(batch);
+                    batch.clear();
+                }
+                if (done) break;
+            }
+        } finally {
+            tasks.shutdownNow();
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Result(startedAt, attempted, written, skipped.get(), failed.get(), elapsed);
+    }
+
+    /** One reading from one provider, or null if the call failed or had no data. */
+    public ReadingStore.Reading fetch(Provider p, Location loc) throws InterruptedException {
+        p.limiter().acquire();
+        inFlight.acquire();
+        try {
+            HttpResponse<String> resp = client.send(p.request(loc), HttpResponse.BodyHandlers.ofString());
+            if (resp.statusCode() != 200) return null;
+
+            double value = p.parse(mapper.readTree(resp.body()));
+            if (Double.isNaN(value)) return null;
+            return new ReadingStore.Reading(p.metric(), loc.latitude(), loc.longitude(), value, LocalDateTime.now());
+        } catch (IOException | RuntimeException e) {
+            // a bad body (parse error, missing field) is a failed call like any other
+            return null;
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    // LOCATIONS_FILE if set, otherwise the single LAT/LON pair
+    static List<Location> locations(Dotenv env) throws IOException {
+        String file = env.get("LOCATIONS_FILE");
+        if (file != null && !file.isBlank()) {
+            return Location.load(Path.of(file));
+        }
+        String lat = env.get("LAT");
+        String lon = env.get("LON");
+        if (lat == null || lon == null) return List.of();
+        return List.of(new Location(Double.parseDouble(lat), Double.parseDouble(lon)));
+    }
+
+    static double rate(Dotenv env, String name, double fallback) {
+        String v = env.get(name);
+        return v == null || v.isBlank() ? fallback : Double.parseDouble(v.trim());
+    }
+
+    // Real AQICN/OpenUV providers for the keys present in env, or both against the stub
+    static List<Provider> providers(Dotenv env, ProviderStub stub) {
+        List<Provider> providers = new ArrayList<>();
+        String aqiToken = stub != null ? "stub" : env.get("AQICN_TOKEN");
+        String uvKey = stub != null ? "stub" : env.get("OPENUV_KEY");
+        if (aqiToken != null) {
+            providers.add(Provider.aqicn(stub != null ? stub.baseUrl() : env.get("AQICN_BASE_URL", AQICN_URL),
+                    aqiToken, rate(env, "AQICN_RPS", stub != null ? 0 : 10)));
+        }
+        if (uvKey != null) {
+            providers.add(Provider.openUv(stub != null ? stub.baseUrl() : env.get("OPENUV_BASE_URL", OPENUV_URL),
+                    uvKey, rate(env, "OPENUV_RPS", stub != null ? 0 : 5)));
+        }
+        return providers;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Dotenv env = Dotenv.configure().ignoreIfMissing().load();
+        List<String> flags = Arrays.asList(args);
+        boolean stub = flags.contains("--stub");
+
+        List<Location> locations = locations(env);
+        for (String f : flags) {
+            if (f.startsWith("--generate=")) {
+                locations = Location.generate(Integer.parseInt(f.substring("--generate=".length())), 42);
+            }
+        }
+        if (locations.isEmpty()) {
+            System.err.println("No locations: set LOCATIONS_FILE or LAT/LON in .env, or pass --generate=N");
+            return;
+        }
+
+        ProviderStub stubServer = stub ? ProviderStub.start(0, ServerExecutors.intEnv("STUB_LATENCY_MS", 20)) : null;
+        try {
+            List<Provider> providers = providers(env, stubServer);
+            if (providers.isEmpty()) {
+                System.err.println("Missing AQICN_TOKEN and OPENUV_KEY in .env (or pass --stub)");
+                return;
+            }
+
+            ReadingStore.ensureSchema();
+            Result result = fromEnv().run(locations, providers);
+            System.out.println("Ingested " + locations.size() + " locations x " + providers.size() + " providers: " + result);
+
+            for (Provider p : providers) {
+                ReadingStore.prune(p.metric());
+            }
+        } finally {
+            if (stubServer != null) stubServer.stop();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.github.nawafalb;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the reading tables fresh without cron: each provider gets a job
+ * that runs the {@link IngestionEngine} on its own interval, jittered so
+ * the providers don't all fire at once, and backs off exponentially while
+ * a provider keeps failing.
+ *
+ * Readings that match the last stored value for their location are not
+ * written again, so a quiet provider doesn't grow the tables or churn the
+ * data version (and with it every cached response).
+ *
+ * Runs standalone (IngestionScheduler [--stub] [--generate=N]) or inside
+ * the API server with INGEST_SCHEDULER=true, where /health shows the jobs.
+ */
+public class IngestionScheduler {
+
+    private final IngestionEngine engine;
+    private final List<Location> locations;
+    private final double jitter;
+    private final long backoffBaseMillis;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    // last value stored per metric and location
+    private final Map<String, Double> lastValues = new ConcurrentHashMap<>();
+
+    public IngestionScheduler(IngestionEngine engine, List<Location> locations, double jitter, long backoffBaseMillis) {
+        this.engine = engine;
+        this.locations = locations;
+        this.jitter = jitter;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.timer = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "ingestion-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static IngestionScheduler fromEnv(Dotenv env, List<Location> locations) {
+        return new IngestionScheduler(IngestionEngine.fromEnv(), locations,
+                IngestionEngine.rate(env, "INGEST_JITTER", 0.1),
+                TimeUnit.SECONDS.toMillis(ServerExecutors.intEnv("INGEST_BACKOFF_BASE_S", 30)));
+    }
+
+    /** Schedules {@code provider} every {@code intervalMillis}; the first run starts after a random fraction of it. */
+    public synchronized void schedule(Provider provider, long intervalMillis) {
+        Job job = new Job(provider, intervalMillis);
+        jobs.put(provider.name(), job);
+        timer.schedule(job, (long) (ThreadLocalRandom.current().nextDouble() * intervalMillis * jitter), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        jobs.forEach((name, job) -> out.put(name, job.stats()));
+        return out;
+    }
+
+    /** Loads the newest stored value per location, so a restart doesn't rewrite unchanged readings. */
+    public void loadLastValues(ReadingStore.Metric metric) throws SQLException {
+        String sql = "SELECT latitude, longitude, " + metric.column + " FROM " + metric.table
+                + " WHERE id IN (SELECT MAX(id) FROM " + metric.table + " GROUP BY latitude, longitude)";
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            PreparedStatement ps = conn.prepare(sql);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    lastValues.put(key(metric, rs.getDouble(1), rs.getDouble(2)), rs.getDouble(3));
+                }
+            }
+        }
+    }
+
+    private static String key(ReadingStore.Metric metric, double lat, double lon) {
+        return metric.name() + ":" + lat + "," + lon;
+    }
+
+    // Claims the reading if it differs from the last one; the writer stores every claimed reading
+    private boolean changed(ReadingStore.Reading r) {
+        Double prev = lastValues.put(key(r.metric(), r.latitude(), r.longitude()), r.value());
+        return prev == null || prev != r.value();
+    }
+
+    private void forget(ReadingStore.Metric metric) {
+        lastValues.keySet().removeIf(k -> k.startsWith(metric.name() + ":"));
+    }
+
+    private class Job implements Runnable {
+        private final Provider provider;
+        private final long intervalMillis;
+        // written by the job on the scheduler thread, read by stats() on request threads
+        private volatile int consecutiveFailures;
+
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private volatile long lastMillis;
+        private volatile String lastError;
+        private volatile LocalDateTime lastRun;
+        private volatile LocalDateTime nextRun;
+
+        Job(Provider provider, long intervalMillis) {
+            this.provider = provider;
+            this.intervalMillis = intervalMillis;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                IngestionEngine.Result r = engine.run(locations, List.of(provider), IngestionScheduler.this::changed);
+                written.addAndGet(r.written());
+                unchanged.addAndGet(r.skipped());
+                // a run where every call failed counts as a provider failure
+                ok = r.attempted() == 0 || r.failed() < r.attempted();
+                lastError = ok ? null : r.failed() + " of " + r.attempted() + " calls failed";
+                if (r.written() > 0) ReadingStore.prune(provider.metric());
+                System.out.println("[" + provider.name() + "] " + r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // the batch may not have been stored, so stop trusting what we think is there
+                forget(provider.metric());
+                ok = false;
+                lastError = String.valueOf(e.getMessage());
+                System.err.println("[" + provider.name() + "] ingestion failed: " + e.getMessage());
+            }
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            runs.incrementAndGet();
+            totalMillis.addAndGet(elapsed);
+            lastMillis = elapsed;
+            lastRun = LocalDateTime.now();
+            if (ok) {
+                successes.incrementAndGet();
+                consecutiveFailures = 0;
+            } else {
+                failures.incrementAndGet();
+                consecutiveFailures++;
+            }
+
+            long delay = nextDelay();
+            nextRun = LocalDateTime.now().plus(Duration.ofMillis(delay));
+            if (!timer.isShutdown()) timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        // interval after a success; base * 2^(n-1) after n failures in a row, never more than the interval
+        private long nextDelay() {
+            long base = intervalMillis;
+            if (consecutiveFailures > 0) {
+                int shift = Math.min(consecutiveFailures - 1, 20);
+                base = Math.min(intervalMillis, backoffBaseMillis << shift);
+            }
+            double spread = jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+            return Math.max(1, (long) (base * (1 + spread)));
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> s = new LinkedHashMap<>();
+            long n = runs.get();
+            s.put("metric", provider.metric().name());
+            s.put("intervalMs", intervalMillis);
+            s.put("runs", n);
+            s.put("successes", successes.get());
+            s.put("failures", failures.get());
+            s.put("consecutiveFailures", consecutiveFailures);
+            s.put("written", written.get());
+            s.put("unchanged", unchanged.get());
+            s.put("lastMs", lastMillis);
+            s.put("avgMs", n == 0 ? 0 : totalMillis.get() / n);
+            s.put("lastRun", lastRun == null ? null : lastRun.toString());
+            s.put("nextRun", nextRun == null ? null : nextRun.toString());
+            s.put("lastError", lastError);
+            return s;
+        }
+    }
+
+    /**
+     * Schedules a job per configured provider. Intervals come from
+     * AQICN_INTERVAL_S (default 3600) and OPENUV_INTERVAL_S (default 1800).
+     */
+    public static IngestionScheduler start(Dotenv env, List<Location> locations, ProviderStub stub) throws SQLException {
+        IngestionScheduler scheduler = fromEnv(env, locations);
+        for (Provider p : IngestionEngine.providers(env, stub)) {
+            String var = p.metric() == ReadingStore.Metric.AQI ? "AQICN_INTERVAL_S" : "OPENUV_INTERVAL_S";
+            int seconds = ServerExecutors.intEnv(var, p.metric() == ReadingStore.Metric.AQI ? 3600 : 1800);
+            scheduler.loadLastValues(p.metric());
+            scheduler.schedule(p, TimeUnit.SECONDS.toMillis(seconds));
+            System.out.println("Scheduled " + p.name() + " every " + seconds + "s for " + locations.size() + " locations");
+        }
+        return scheduler;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Dotenv env = Dotenv.configure().ignoreIfMissing().load();
+        List<String> flags = Arrays.asList(args);
+
+        List<Location> locations = IngestionEngine.locations(env);
+        for (String f : flags) {
+            if (f.startsWith("--generate=")) {
+                locations = Location.generate(Integer.parseInt(f.substring("--generate=".length())), 42);
+            }
+        }
+        if (locations.isEmpty()) {
+            System.err.println("No locations: set LOCATIONS_FILE or LAT/LON in .env, or pass --generate=N");
+            return;
+        }
+
+        ProviderStub stub = flags.contains("--stub")
+                ? ProviderStub.start(0, ServerExecutors.intEnv("STUB_LATENCY_MS", 20)) : null;
+        ReadingStore.ensureSchema();
+        IngestionScheduler scheduler = start(env, locations, stub);
+        if (scheduler.jobs.isEmpty()) {
+            System.err.println("Missing AQICN_TOKEN and OPENUV_KEY in .env (or pass --stub)");
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.stop();
+            if (stub != null) stub.stop();
+        }));
+        // the jobs run on daemon threads; park here until killed
+        Thread.currentThread().join();
+    }
+}
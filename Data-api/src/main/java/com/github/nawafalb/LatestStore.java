@@ -0,0 +1,399 @@
+package com.github.nawafalb;
+
+import java.lang.invoke.VarHandle;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The newest reading of each metric at every location, held in memory so
+ * /latest and /airquality?limit=1&order=desc (class-api's /combined) are
+ * answered without JDBC.
+ *
+ * Each metric is a set of parallel primitive arrays, one slot per location,
+ * with an open-addressing index from (latitude, longitude) to slot. Lookups
+ * take no lock: a slot is guarded by a sequence number the single writer
+ * makes odd while it rewrites the slot, and a reader that sees it odd or
+ * changed reads again. Slot 0 holds the newest reading by id.
+ *
+ * Loaded at startup, then brought forward by id: by {@link ReadingStore}
+ * after each write, and in the background when the data version moves
+ * because a loader in another process wrote. Deletes are found by checking
+ * each table's row count and smallest id against what the store expects;
+ * a metric that lost rows (a prune) is reloaded, and so is every metric
+ * when the version moved with no rows added or removed. {@link #synced()} is the data
+ * version the store is known to be current for; callers with a newer one
+ * go to SQLite instead. LATEST_STORE=false turns it off.
+ *
+ * The store also keeps the {@link NearestIndex} of every location it holds.
+ */
+final class LatestStore {
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getenv("LATEST_STORE"));
+
+    private static final int NEWEST = 0;
+    private static final ReadingStore.Metric[] METRICS = ReadingStore.Metric.values();
+
+    // One per metric, replaced whole when it grows or reloads; null when the table can't be served
+    private static final AtomicReferenceArray<Readings> readings = new AtomicReferenceArray<>(METRICS.length);
+    private static final long[] lastId = new long[METRICS.length];
+    private static final long[] rowCount = new long[METRICS.length];
+    private static volatile long synced = -1;
+    private static final NearestIndex index = new NearestIndex();
+    private static ExecutorService follower;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder reloads = new LongAdder();
+
+    static {
+        Metrics.counter("latest_store_hits_total", "Latest-reading lookups answered from memory",
+                hits::sum, "service", "data-api");
+        Metrics.counter("latest_store_misses_total", "Latest-reading lookups sent to SQLite because the store was behind",
+                misses::sum, "service", "data-api");
+    }
+
+    private LatestStore() { }
+
+    /** Loads every metric and follows data version changes from then on. */
+    static synchronized void start() throws SQLException {
+        if (!ENABLED || follower != null) return;
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            load(conn.connection());
+        }
+        follower = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "latest-store");
+            t.setDaemon(true);
+            return t;
+        });
+        DataVersion.onChange(v -> {
+            if (v > synced) follower.execute(LatestStore::follow);
+        });
+    }
+
+    /** Loads every metric from scratch; current for the data version from then on. */
+    static synchronized void load(Connection conn) throws SQLException {
+        long version = version(conn);
+        for (ReadingStore.Metric m : METRICS) reload(conn, m);
+        indexLocations();
+        synced = version;
+    }
+
+    private static void follow() {
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            catchUp(conn.connection());
+        } catch (SQLException e) {
+            System.err.println("Latest store catch-up failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies readings written since the last call; no-op until {@link #start}.
+     * Call after the write's data version bump, on the writer's connection.
+     */
+    static synchronized void catchUp(Connection conn) throws SQLException {
+        if (synced < 0) return;
+        long version = version(conn);
+        if (version <= synced) return;
+
+        boolean added = false;
+        boolean reloaded = false;
+        for (int i = 0; i < METRICS.length; i++) {
+            if (readings.get(i) == null) continue;
+            ReadingStore.Metric m = METRICS[i];
+            long applied = 0;
+            try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM " + m.table + " WHERE id > ? ORDER BY id")) {
+                ps.setLong(1, lastId[i]);
+                try (ResultSet rs = ps.executeQuery()) {
+                    ReadingRows.Columns columns = ReadingRows.Columns.of(rs, m);
+                    if (columns == null) {
+                        readings.set(i, null);
+                        continue;
+                    }
+                    while (rs.next()) {
+                        apply(i, ReadingRows.read(rs, columns));
+                        applied++;
+                    }
+                }
+            }
+            added |= applied > 0;
+            rowCount[i] += applied;
+
+            // A loader appends and then prunes, and both bumps often arrive together, so new rows
+            // don't mean nothing was deleted: compare the table with what the store has seen
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT min(id), count(*) FROM " + m.table)) {
+                rs.next();
+                if (rs.getLong(1) != readings.get(i).oldestId || rs.getLong(2) != rowCount[i]) {
+                    reload(conn, m);
+                    reloaded = true;
+                }
+            }
+        }
+        // the version moved with no rows added or removed: something was rewritten in place
+        if (!added && !reloaded) {
+            for (ReadingStore.Metric m : METRICS) reload(conn, m);
+            reloaded = true;
+        }
+        if (reloaded) indexLocations();
+        synced = version;
+    }
+
+    /** Every location with a reading, once {@link #start} has run. */
+    static NearestIndex locations() { return index; }
+
+    private static void indexLocations() {
+        List<Location> all = new ArrayList<>();
+        for (int i = 0; i < METRICS.length; i++) {
+            Readings r = readings.get(i);
+            if (r == null) continue;
+            for (int slot = 1; slot < r.size; slot++) all.add(new Location(r.latitudes[slot], r.longitudes[slot]));
+        }
+        index.reset(all);
+    }
+
+    /** The data version the store reflects; -1 when it isn't loaded. */
+    static long synced() { return synced; }
+
+    /**
+     * The newest reading at each location (null where there is none), or null
+     * when the store is behind {@code version} and SQLite has to answer.
+     */
+    static ReadingRows.Row[] latest(ReadingStore.Metric metric, List<Location> locations, long version) {
+        Readings r = current(metric, version);
+        if (r == null) return null;
+        ReadingRows.Row[] out = new ReadingRows.Row[locations.size()];
+        for (int i = 0; i < out.length; i++) {
+            Location l = locations.get(i);
+            int slot = r.find(l.latitude(), l.longitude());
+            out[i] = slot < 0 ? null : r.read(slot);
+        }
+        return out;
+    }
+
+    /** What /{metric}?limit=1&order=desc would return, or null when SQLite has to answer. */
+    static Newest newest(ReadingStore.Metric metric, long version) {
+        Readings r = current(metric, version);
+        if (r == null) return null;
+        ReadingRows.Row row = r.newestSet ? r.read(NEWEST) : null;
+        return new Newest(row, row != null && row.id() > r.oldestId);
+    }
+
+    /** The newest row by id (null for an empty table) and whether older rows exist. */
+    record Newest(ReadingRows.Row row, boolean more) { }
+
+    private static Readings current(ReadingStore.Metric metric, long version) {
+        boolean behind = synced < version;
+        Readings r = readings.get(metric.ordinal());
+        if (r == null || behind) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return r;
+    }
+
+    static Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("enabled", ENABLED);
+        m.put("syncedVersion", synced);
+        for (ReadingStore.Metric metric : METRICS) {
+            Readings r = readings.get(metric.ordinal());
+            m.put(metric.name().toLowerCase() + "Locations", r == null ? null : r.size - 1);
+        }
+        m.put("hits", hits.sum());
+        m.put("misses", misses.sum());
+        m.put("reloads", reloads.sum());
+        return m;
+    }
+
+    private static long version(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM data_version WHERE id = 1")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Builds the metric from scratch and swaps it in; readers keep using the old one until then
+    private static void reload(Connection conn, ReadingStore.Metric m) throws SQLException {
+        int i = m.ordinal();
+        String t = m.table;
+        Readings r = new Readings(m, 64);
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + t + " WHERE id IN (SELECT (SELECT id FROM " + t
+                    + " WHERE latitude = l.latitude AND longitude = l.longitude ORDER BY dateTime DESC, id DESC LIMIT 1)"
+                    + " FROM (SELECT DISTINCT latitude, longitude FROM " + t + ") l)")) {
+                ReadingRows.Columns columns = ReadingRows.Columns.of(rs, m);
+                if (columns == null) {
+                    System.err.println("Latest store: " + t + " does not have the expected columns; served from SQLite");
+                    readings.set(i, null);
+                    return;
+                }
+                while (rs.next()) r = r.put(ReadingRows.read(rs, columns));
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + t + " ORDER BY id DESC LIMIT 1")) {
+                ReadingRows.Columns columns = ReadingRows.Columns.of(rs, m);
+                if (columns != null && rs.next()) r.write(NEWEST, ReadingRows.read(rs, columns));
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT min(id), max(id), count(*) FROM " + t)) {
+                rs.next();
+                r.oldestId = rs.getLong(1);
+                lastId[i] = rs.getLong(2);
+                rowCount[i] = rs.getLong(3);
+            }
+        }
+        readings.set(i, r);
+        reloads.increment();
+    }
+
+    private static void apply(int metric, ReadingRows.Row row) {
+        Readings before = readings.get(metric);
+        int size = before.size;
+        Readings r = before.put(row);
+        if (r.size > size) index.add(row.latitude(), row.longitude());
+        if (!r.newestSet || row.id() > r.ids[NEWEST]) r.write(NEWEST, row);
+        readings.set(metric, r);
+        lastId[metric] = Math.max(lastId[metric], row.id());
+    }
+
+    /**
+     * Parallel arrays for one metric. Only the thread holding the LatestStore
+     * lock writes; a slot's latitude and longitude are set once, before the
+     * index points at it, and never change.
+     */
+    static final class Readings {
+        final long[] ids;
+        final double[] latitudes;
+        final double[] longitudes;
+        final double[] values;
+        final String[] times;
+        final AtomicLongArray seq;
+        final AtomicIntegerArray index;  // slot + 1, 0 for empty
+        final ReadingStore.Metric metric;
+        volatile int size = 1;           // slot 0 is NEWEST
+        volatile boolean newestSet;
+        long oldestId;                   // set before the arrays are published
+
+        Readings(ReadingStore.Metric metric, int capacity) {
+            ids = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            values = new double[capacity];
+            times = new String[capacity];
+            seq = new AtomicLongArray(capacity);
+            index = new AtomicIntegerArray(capacity * 2);
+            this.metric = metric;
+        }
+
+        int find(double lat, double lon) {
+            int mask = index.length() - 1;
+            for (int h = hash(lat, lon) & mask; ; h = (h + 1) & mask) {
+                int slot = index.getAcquire(h) - 1;
+                if (slot < 0) return -1;
+                if (latitudes[slot] == lat && longitudes[slot] == lon) return slot;
+            }
+        }
+
+        ReadingRows.Row read(int slot) {
+            while (true) {
+                long before = seq.getAcquire(slot);
+                if ((before & 1) == 0) {
+                    long id = ids[slot];
+                    double lat = latitudes[slot];
+                    double lon = longitudes[slot];
+                    double value = values[slot];
+                    String time = times[slot];
+                    VarHandle.acquireFence();
+                    if (seq.get(slot) == before) {
+                        return metric == ReadingStore.Metric.UV
+                                ? new ReadingRows.UvReading(id, lat, lon, value, time)
+                                : new ReadingRows.AirQualityReading(id, lat, lon, value, time);
+                    }
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        void write(int slot, ReadingRows.Row row) {
+            long s = seq.get(slot);
+            seq.set(slot, s + 1);
+            VarHandle.storeStoreFence();
+            ids[slot] = row.id();
+            if (slot == NEWEST) {
+                latitudes[slot] = row.latitude();
+                longitudes[slot] = row.longitude();
+                newestSet = true;
+            }
+            values[slot] = row.value();
+            times[slot] = row.dateTime();
+            seq.setRelease(slot, s + 2);
+        }
+
+        /** Stores {@code row} if it is the location's newest by (dateTime, id); returns the arrays to use from now on. */
+        Readings put(ReadingRows.Row row) {
+            Readings r = this;
+            int slot = r.find(row.latitude(), row.longitude());
+            if (slot < 0) {
+                if (r.size * 2 > r.ids.length) r = r.grow(r.ids.length * 2);
+                slot = r.size++;
+                r.latitudes[slot] = row.latitude();
+                r.longitudes[slot] = row.longitude();
+                r.write(slot, row);
+                int mask = r.index.length() - 1;
+                int h = hash(row.latitude(), row.longitude()) & mask;
+                while (r.index.get(h) != 0) h = (h + 1) & mask;
+                r.index.setRelease(h, slot + 1);
+            } else if (newer(row, r.times[slot], r.ids[slot])) {
+                r.write(slot, row);
+            }
+            return r;
+        }
+
+        private Readings grow(int capacity) {
+            Readings g = new Readings(metric, capacity);
+            g.size = size;
+            g.newestSet = newestSet;
+            g.oldestId = oldestId;
+            System.arraycopy(ids, 0, g.ids, 0, size);
+            System.arraycopy(latitudes, 0, g.latitudes, 0, size);
+            System.arraycopy(longitudes, 0, g.longitudes, 0, size);
+            System.arraycopy(values, 0, g.values, 0, size);
+            System.arraycopy(times, 0, g.times, 0, size);
+            int mask = g.index.length() - 1;
+            for (int slot = 1; slot < size; slot++) {
+                int h = hash(latitudes[slot], longitudes[slot]) & mask;
+                while (g.index.get(h) != 0) h = (h + 1) & mask;
+                g.index.set(h, slot + 1);
+            }
+            return g;
+        }
+
+        // Same order as the SQL: dateTime, then id; a NULL dateTime sorts first
+        static boolean newer(ReadingRows.Row row, String time, long id) {
+            String t = row.dateTime();
+            int cmp = t == null ? (time == null ? 0 : -1) : time == null ? 1 : t.compareTo(time);
+            return cmp > 0 || (cmp == 0 && row.id() > id);
+        }
+
+        // + 0.0 so -0.0 hashes like 0.0, which it equals
+        private static int hash(double lat, double lon) {
+            long h = Double.doubleToLongBits(lat + 0.0) * 31 + Double.doubleToLongBits(lon + 0.0);
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.nawafalb;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Paging and range parameters for the list endpoints.
+ *
+ *   limit=N         page size (max 1000); turns on the {"items":[...],"nextCursor":...} shape
+ *   after=CURSOR    nextCursor from the previous page, or a plain id
+ *   by=id|dateTime  keyset column (default id)
+ *   order=asc|desc  default asc; limit=1&order=desc gives the latest reading
+ *   from=, to=      dateTime range, from inclusive and to exclusive (yyyy-MM-dd or ISO date-time)
+ *
+ * Without limit or after the endpoint behaves as before and returns a plain array.
+ */
+final class ListQuery {
+
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    enum Key { ID, DATETIME }
+
+    final Integer limit;
+    final Key key;
+    final boolean descending;
+    final Long afterId;
+    final String afterTime;
+    final String from;
+    final String to;
+
+    private ListQuery(Integer limit, Key key, boolean descending, Long afterId, String afterTime, String from, String to) {
+        this.limit = limit;
+        this.key = key;
+        this.descending = descending;
+        this.afterId = afterId;
+        this.afterTime = afterTime;
+        this.from = from;
+        this.to = to;
+    }
+
+    static final ListQuery ALL = new ListQuery(null, Key.ID, false, null, null, null, null);
+
+    boolean paged() { return limit != null; }
+
+    // limit=1&order=desc and nothing else: the newest row by id
+    boolean newestOnly() {
+        return limit != null && limit == 1 && descending && key == Key.ID && afterId == null && from == null && to == null;
+    }
+
+    static ListQuery parse(Map<String, String> params) {
+        Key key = parseKey(params.get("by"));
+        boolean descending = parseOrder(params.get("order"));
+
+        Long afterId = null;
+        String afterTime = null;
+        String after = params.get("after");
+        if (after != null && !after.isEmpty()) {
+            if (after.chars().allMatch(Character::isDigit)) {
+                if (key == Key.DATETIME) throw new IllegalArgumentException("after=<id> needs by=id");
+                afterId = parseId(after);
+            } else {
+                String decoded = decodeCursor(after);
+                if (decoded.startsWith("i:")) {
+                    if (params.containsKey("by") && key != Key.ID) throw new IllegalArgumentException("cursor does not match by=" + params.get("by"));
+                    key = Key.ID;
+                    afterId = parseId(decoded.substring(2));
+                } else if (decoded.startsWith("t:") && decoded.lastIndexOf('|') > 1) {
+                    if (params.containsKey("by") && key != Key.DATETIME) throw new IllegalArgumentException("cursor does not match by=" + params.get("by"));
+                    key = Key.DATETIME;
+                    int bar = decoded.lastIndexOf('|');
+                    afterTime = decoded.substring(2, bar);
+                    afterId = parseId(decoded.substring(bar + 1));
+                } else {
+                    throw new IllegalArgumentException("invalid cursor");
+                }
+            }
+        }
+
+        Integer limit = null;
+        String limitParam = params.get("limit");
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number");
+            }
+            if (limit < 1 || limit > MAX_LIMIT) throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        } else if (afterId != null) {
+            limit = DEFAULT_LIMIT;
+        }
+
+        return new ListQuery(limit, key, descending, afterId, afterTime,
+                parseTime("from", params.get("from")), parseTime("to", params.get("to")));
+    }
+
+    /** The same query, {@code rows} at a time; an unpaged list is read in such chunks. */
+    ListQuery chunk(int rows) {
+        return new ListQuery(rows, key, descending, afterId, afterTime, from, to);
+    }
+
+    /** The same query resuming after the row with this id (and dateTime, when keyed on it). */
+    ListQuery after(long id, String dateTime) {
+        return new ListQuery(limit, key, descending, id, key == Key.DATETIME ? dateTime : null, from, to);
+    }
+
+    String sql(String tableName) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(tableName).append(" WHERE 1=1");
+        String cmp = descending ? "<" : ">";
+        if (afterId != null) {
+            if (key == Key.DATETIME) {
+                sql.append(" AND (dateTime, id) ").append(cmp).append(" (?, ?)");
+            } else {
+                sql.append(" AND id ").append(cmp).append(" ?");
+            }
+        }
+        if (from != null) sql.append(" AND dateTime >= ?");
+        if (to != null) sql.append(" AND dateTime < ?");
+
+        String dir = descending ? " DESC" : " ASC";
+        if (key == Key.DATETIME) {
+            sql.append(" ORDER BY dateTime").append(dir).append(", id").append(dir);
+        } else {
+            sql.append(" ORDER BY id").append(dir);
+        }
+        // one extra row tells us whether there is a next page
+        if (paged()) sql.append(" LIMIT ?");
+        return sql.toString();
+    }
+
+    // Queries with the same shape get the same SQL from sql(); only the bound values differ
+    int shape() {
+        return (key == Key.DATETIME ? 1 : 0)
+                | (descending ? 2 : 0)
+                | (afterId != null ? 4 : 0)
+                | (from != null ? 8 : 0)
+                | (to != null ? 16 : 0)
+                | (paged() ? 32 : 0);
+    }
+
+    void bind(PreparedStatement ps) throws SQLException {
+        int i = 1;
+        if (afterId != null) {
+            if (key == Key.DATETIME) ps.setString(i++, afterTime);
+            ps.setLong(i++, afterId);
+        }
+        if (from != null) ps.setString(i++, from);
+        if (to != null) ps.setString(i++, to);
+        if (paged()) ps.setInt(i, limit + 1);
+    }
+
+    String cursorFor(long id, String dateTime) {
+        String raw = key == Key.DATETIME ? "t:" + dateTime + "|" + id : "i:" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    private static long parseId(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+
+    private static Key parseKey(String by) {
+        if (by == null || by.equalsIgnoreCase("id")) return Key.ID;
+        if (by.equalsIgnoreCase("dateTime")) return Key.DATETIME;
+        throw new IllegalArgumentException("by must be id or dateTime");
+    }
+
+    private static boolean parseOrder(String order) {
+        if (order == null || order.equalsIgnoreCase("asc")) return false;
+        if (order.equalsIgnoreCase("desc")) return true;
+        throw new IllegalArgumentException("order must be asc or desc");
+    }
+
+    // Accepts a date or ISO date-time and returns it in the ISO form the loaders store
+    static String parseTime(String name, String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            if (value.length() == 10) return LocalDate.parse(value).atStartOfDay().toString();
+            return LocalDateTime.parse(value.replace(' ', 'T')).toString();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be yyyy-MM-dd or an ISO date-time");
+        }
+    }
+}
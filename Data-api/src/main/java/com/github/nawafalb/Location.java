@@ -0,0 +1,84 @@
+package com.github.nawafalb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** A point we collect readings for. */
+public record Location(double latitude, double longitude) {
+
+    /**
+     * Reads one "lat,lon" pair per line. Blank lines and lines starting
+     * with '#' are skipped; anything after the second column is ignored
+     * so a name can follow.
+     */
+    public static List<Location> load(Path file) throws IOException {
+        List<Location> out = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(file)) {
+            lineNo++;
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("#")) continue;
+            String[] cols = t.split(",");
+            if (cols.length < 2) {
+                throw new IOException(file + ":" + lineNo + ": expected lat,lon");
+            }
+            try {
+                out.add(new Location(coordinate(cols[0]), coordinate(cols[1])));
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ":" + lineNo + ": expected lat,lon", e);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Parses a request's locations=lat,lon;lat,lon;... list, at most {@code max}
+     * entries. Throws IllegalArgumentException with a message fit for a 400.
+     */
+    public static List<Location> parseList(String param, int max) {
+        if (param == null || param.isBlank()) throw new IllegalArgumentException("locations is required (lat,lon;lat,lon;...)");
+        List<Location> out = new ArrayList<>();
+        for (String pair : param.split(";")) {
+            if (pair.isBlank()) continue;
+            String[] cols = pair.split(",");
+            double lat, lon;
+            try {
+                if (cols.length != 2) throw new NumberFormatException();
+                lat = coordinate(cols[0]);
+                lon = coordinate(cols[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("expected lat,lon but got '" + pair + "'");
+            }
+            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+                throw new IllegalArgumentException("location out of range: " + pair);
+            }
+            out.add(new Location(lat, lon));
+        }
+        if (out.isEmpty()) throw new IllegalArgumentException("locations is required (lat,lon;lat,lon;...)");
+        if (out.size() > max) throw new IllegalArgumentException("at most " + max + " locations per request");
+        return out;
+    }
+
+    // NaN and Infinity parse as doubles but never compare equal to a stored coordinate
+    private static double coordinate(String s) {
+        double d = Double.parseDouble(s.trim());
+        if (!Double.isFinite(d)) throw new NumberFormatException("not a finite number: " + s);
+        return d;
+    }
+
+    // Random points for offline throughput runs
+    public static List<Location> generate(int count, long seed) {
+        Random rnd = new Random(seed);
+        List<Location> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = Math.round((rnd.nextDouble() * 140 - 70) * 1e4) / 1e4;
+            double lon = Math.round((rnd.nextDouble() * 360 - 180) * 1e4) / 1e4;
+            out.add(new Location(lat, lon));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,236 @@
+package com.github.nawafalb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Known locations, for finding the k nearest to a point. Each location is
+ * kept as a unit vector on the sphere; the straight-line distance between
+ * two of them orders the same way as the great-circle distance, so a
+ * 3-d k-d tree answers nearest-location queries with no special cases at
+ * the poles or the antimeridian.
+ *
+ * The tree is an implicit one over sorted arrays. A new location goes on
+ * a short pending list that queries scan directly; once the list reaches
+ * PENDING_MAX or the square root of the tree size, the tree is rebuilt
+ * with it. Every change publishes a new immutable {@link Points}, so
+ * queries never lock.
+ */
+final class NearestIndex {
+
+    static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final int PENDING_MAX = 64;
+
+    /** A location and its distance from the query point. */
+    record Hit(Location location, double distanceKm) { }
+
+    // [0, indexed) is the k-d tree, [indexed, size) the pending list
+    private record Points(double[] lat, double[] lon, double[] xyz, int indexed, int size) { }
+
+    private volatile Points points = new Points(new double[0], new double[0], new double[0], 0, 0);
+
+    int size() { return points.size(); }
+
+    /** Adds a location unless it is already known. */
+    synchronized void add(double lat, double lon) {
+        Points p = points;
+        double[] v = vector(lat, lon);
+        for (int j : nearest(p, v, 1)) {
+            if (p.lat()[j] == lat && p.lon()[j] == lon) return;
+        }
+        int n = p.size() + 1;
+        double[] lats = Arrays.copyOf(p.lat(), n);
+        double[] lons = Arrays.copyOf(p.lon(), n);
+        double[] xyz = Arrays.copyOf(p.xyz(), n * 3);
+        lats[n - 1] = lat;
+        lons[n - 1] = lon;
+        System.arraycopy(v, 0, xyz, (n - 1) * 3, 3);
+        int pending = n - p.indexed();
+        if (pending >= PENDING_MAX || pending * pending > p.indexed()) {
+            build(lats, lons, xyz, 0, n, 0);
+            points = new Points(lats, lons, xyz, n, n);
+        } else {
+            points = new Points(lats, lons, xyz, p.indexed(), n);
+        }
+    }
+
+    /** Replaces every location, e.g. after a reload dropped some. */
+    synchronized void reset(List<Location> locations) {
+        Set<Location> unique = new LinkedHashSet<>(locations);
+        int n = unique.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        double[] xyz = new double[n * 3];
+        int i = 0;
+        for (Location l : unique) {
+            lats[i] = l.latitude();
+            lons[i] = l.longitude();
+            System.arraycopy(vector(l.latitude(), l.longitude()), 0, xyz, i * 3, 3);
+            i++;
+        }
+        build(lats, lons, xyz, 0, n, 0);
+        points = new Points(lats, lons, xyz, n, n);
+    }
+
+    /** Up to {@code k} locations, nearest first. */
+    List<Hit> nearest(double lat, double lon, int k) {
+        Points p = points;
+        int[] ids = nearest(p, vector(lat, lon), k);
+        List<Hit> hits = new ArrayList<>(ids.length);
+        for (int j : ids) {
+            hits.add(new Hit(new Location(p.lat()[j], p.lon()[j]), haversineKm(lat, lon, p.lat()[j], p.lon()[j])));
+        }
+        return hits;
+    }
+
+    private static int[] nearest(Points p, double[] q, int k) {
+        if (k <= 0 || p.size() == 0) return new int[0];
+        Best best = new Best(Math.min(k, p.size()));
+        search(p, q, 0, p.indexed(), 0, best);
+        for (int i = p.indexed(); i < p.size(); i++) best.offer(i, chord2(p.xyz(), i, q));
+        return best.sorted();
+    }
+
+    // The node of [lo, hi) is its middle element, split on axis depth % 3
+    private static void search(Points p, double[] q, int lo, int hi, int depth, Best best) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int axis = depth % 3;
+        best.offer(mid, chord2(p.xyz(), mid, q));
+        double diff = q[axis] - p.xyz()[mid * 3 + axis];
+        if (diff < 0) {
+            search(p, q, lo, mid, depth + 1, best);
+            if (diff * diff < best.worst()) search(p, q, mid + 1, hi, depth + 1, best);
+        } else {
+            search(p, q, mid + 1, hi, depth + 1, best);
+            if (diff * diff < best.worst()) search(p, q, lo, mid, depth + 1, best);
+        }
+    }
+
+    // Orders [lo, hi) so each middle element splits its range on depth % 3
+    private static void build(double[] lat, double[] lon, double[] xyz, int lo, int hi, int depth) {
+        if (hi - lo < 2) return;
+        int mid = (lo + hi) >>> 1;
+        int axis = depth % 3;
+        select(lat, lon, xyz, lo, hi - 1, mid, axis);
+        build(lat, lon, xyz, lo, mid, depth + 1);
+        build(lat, lon, xyz, mid + 1, hi, depth + 1);
+    }
+
+    // Quickselect: puts the k-th smallest on axis at k, smaller ones before it
+    private static void select(double[] lat, double[] lon, double[] xyz, int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = xyz[((lo + hi) >>> 1) * 3 + axis];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (xyz[i * 3 + axis] < pivot) i++;
+                while (xyz[j * 3 + axis] > pivot) j--;
+                if (i <= j) swap(lat, lon, xyz, i++, j--);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private static void swap(double[] lat, double[] lon, double[] xyz, int a, int b) {
+        double t = lat[a]; lat[a] = lat[b]; lat[b] = t;
+        t = lon[a]; lon[a] = lon[b]; lon[b] = t;
+        for (int c = 0; c < 3; c++) {
+            t = xyz[a * 3 + c]; xyz[a * 3 + c] = xyz[b * 3 + c]; xyz[b * 3 + c] = t;
+        }
+    }
+
+    private static double[] vector(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double c = Math.cos(phi);
+        return new double[] { c * Math.cos(lambda), c * Math.sin(lambda), Math.sin(phi) };
+    }
+
+    private static double chord2(double[] xyz, int i, double[] q) {
+        double dx = xyz[i * 3] - q[0], dy = xyz[i * 3 + 1] - q[1], dz = xyz[i * 3 + 2] - q[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        lat1 = Math.toRadians(lat1);
+        lon1 = Math.toRadians(lon1);
+        lat2 = Math.toRadians(lat2);
+        lon2 = Math.toRadians(lon2);
+        double a = Math.pow(Math.sin((lat2 - lat1) / 2), 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin((lon2 - lon1) / 2), 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /** The k smallest distances seen so far, as a max-heap on parallel arrays. */
+    private static final class Best {
+        final int[] ids;
+        final double[] dist;
+        int count;
+
+        Best(int k) {
+            ids = new int[k];
+            dist = new double[k];
+        }
+
+        double worst() {
+            return count < ids.length ? Double.POSITIVE_INFINITY : dist[0];
+        }
+
+        void offer(int id, double d) {
+            if (count < ids.length) {
+                int i = count++;
+                while (i > 0 && dist[(i - 1) / 2] < d) {
+                    ids[i] = ids[(i - 1) / 2];
+                    dist[i] = dist[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                ids[i] = id;
+                dist[i] = d;
+            } else if (d < dist[0]) {
+                int i = 0;
+                while (true) {
+                    int c = 2 * i + 1;
+                    if (c >= count) break;
+                    if (c + 1 < count && dist[c + 1] > dist[c]) c++;
+                    if (dist[c] <= d) break;
+                    ids[i] = ids[c];
+                    dist[i] = dist[c];
+                    i = c;
+                }
+                ids[i] = id;
+                dist[i] = d;
+            }
+        }
+
+        // Empties the heap from the back, so the nearest ends up first
+        int[] sorted() {
+            int[] out = new int[count];
+            for (int n = count; n > 0; n--) {
+                out[n - 1] = ids[0];
+                double d = dist[n - 1];
+                int id = ids[n - 1];
+                count = n - 1;
+                int i = 0;
+                while (true) {
+                    int c = 2 * i + 1;
+                    if (c >= count) break;
+                    if (c + 1 < count && dist[c + 1] > dist[c]) c++;
+                    if (dist[c] <= d) break;
+                    ids[i] = ids[c];
+                    dist[i] = dist[c];
+                    i = c;
+                }
+                if (count > 0) {
+                    ids[i] = id;
+                    dist[i] = d;
+                }
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.nawafalb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A reading source: how to ask it about one location, how to read the
+ * answer, and how fast we may call it.
+ */
+public final class Provider {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final String name;
+    private final ReadingStore.Metric metric;
+    private final Function<Location, HttpRequest> requests;
+    private final ToDoubleFunction<JsonNode> parser;
+    private final RateLimiter limiter;
+
+    private Provider(String name, ReadingStore.Metric metric, Function<Location, HttpRequest> requests,
+                     ToDoubleFunction<JsonNode> parser, RateLimiter limiter) {
+        this.name = name;
+        this.metric = metric;
+        this.requests = requests;
+        this.parser = parser;
+        this.limiter = limiter;
+    }
+
+    // AQICN geo feed: {"status":"ok","data":{"aqi":42,...}}
+    public static Provider aqicn(String baseUrl, String token, double perSecond) {
+        return new Provider("aqicn", ReadingStore.Metric.AQI,
+                loc -> HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + "/feed/geo:" + loc.latitude() + ";" + loc.longitude() + "/?token=" + token))
+                        .timeout(TIMEOUT)
+                        .build(),
+                json -> {
+                    // "aqi" is "-" when the station has no data
+                    JsonNode aqi = json.path("data").path("aqi");
+                    return aqi.isNumber() ? aqi.asDouble() : Double.NaN;
+                },
+                new RateLimiter(perSecond));
+    }
+
+    // OpenUV: {"result":{"uv":3.2,...}}
+    public static Provider openUv(String baseUrl, String key, double perSecond) {
+        return new Provider("openuv", ReadingStore.Metric.UV,
+                loc -> HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + "/api/v1/uv?lat=" + loc.latitude() + "&lng=" + loc.longitude()))
+                        .header("x-access-token", key)
+                        .timeout(TIMEOUT)
+                        .build(),
+                json -> {
+                    JsonNode uv = json.path("result").path("uv");
+                    return uv.isNumber() ? uv.asDouble() : Double.NaN;
+                },
+                new RateLimiter(perSecond));
+    }
+
+    public String name() { return name; }
+    public ReadingStore.Metric metric() { return metric; }
+    public HttpRequest request(Location loc) { return requests.apply(loc); }
+
+    /** The reading in a response body, or NaN if there isn't one. */
+    public double parse(JsonNode body) { return parser.applyAsDouble(body); }
+
+    public RateLimiter limiter() { return limiter; }
+}
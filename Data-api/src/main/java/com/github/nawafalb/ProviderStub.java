@@ -0,0 +1,77 @@
+package com.github.nawafalb;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the AQICN and OpenUV APIs, so ingestion throughput can
+ * be measured without network access or API keys. It answers the same URL
+ * shapes with made-up but stable values after an optional delay.
+ */
+public class ProviderStub {
+
+    private final HttpServer server;
+
+    private ProviderStub(HttpServer server) {
+        this.server = server;
+    }
+
+    /** Starts on the given port (0 picks a free one). */
+    public static ProviderStub start(int port, long latencyMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+
+        // /feed/geo:{lat};{lon}/?token=...
+        server.createContext("/feed/", ex -> {
+            String geo = ex.getRequestURI().getPath().substring("/feed/geo:".length()).replace("/", "");
+            String[] ll = geo.split(";");
+            int aqi = 10 + (int) (Math.abs(seed(ll[0], ll[1])) % 190);
+            reply(ex, latencyMillis, "{\"status\":\"ok\",\"data\":{\"aqi\":" + aqi + "}}");
+        });
+
+        // /api/v1/uv?lat=..&lng=..
+        server.createContext("/api/v1/uv", ex -> {
+            Map<String, String> q = ApiServer.queryParams(ex);
+            double uv = Math.abs(seed(q.get("lat"), q.get("lng")) % 120) / 10.0;
+            reply(ex, latencyMillis, "{\"result\":{\"uv\":" + uv + "}}");
+        });
+
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return new ProviderStub(server);
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static long seed(String lat, String lon) {
+        return (String.valueOf(lat) + "," + lon).hashCode();
+    }
+
+    private static void reply(HttpExchange ex, long latencyMillis, String body) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.nawafalb;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed read path for the two reading tables. Rows are read by column
+ * position, resolved once per result set, into primitives, and written
+ * with field names that are encoded once at class load. The list and
+ * by-id handlers use it for user_DataAirQuality and user_DataUV; other
+ * tables go through the generic column-by-column path.
+ *
+ * A NULL reading is carried as NaN and written as JSON null.
+ */
+public final class ReadingRows {
+
+    private ReadingRows() { }
+
+    /** A stored row, whichever table it came from. */
+    public sealed interface Row permits AirQualityReading, UvReading {
+        long id();
+        double latitude();
+        double longitude();
+        double value();
+        String dateTime();
+    }
+
+    public record AirQualityReading(long id, double latitude, double longitude, double airQuality, String dateTime)
+            implements Row {
+        @Override public double value() { return airQuality; }
+    }
+
+    public record UvReading(long id, double latitude, double longitude, double uvIndex, String dateTime)
+            implements Row {
+        @Override public double value() { return uvIndex; }
+    }
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString LATITUDE = new SerializedString("latitude");
+    private static final SerializableString LONGITUDE = new SerializedString("longitude");
+    private static final SerializableString DATE_TIME = new SerializedString("dateTime");
+    private static final SerializableString AIR_QUALITY = new SerializedString(ReadingStore.Metric.AQI.column);
+    private static final SerializableString UV_INDEX = new SerializedString(ReadingStore.Metric.UV.column);
+
+    /** Where each field sits in one result set. */
+    public static final class Columns {
+        final ReadingStore.Metric metric;
+        final int id;
+        final int latitude;
+        final int longitude;
+        final int value;
+        final int dateTime;
+
+        private Columns(ReadingStore.Metric metric, int id, int latitude, int longitude, int value, int dateTime) {
+            this.metric = metric;
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.value = value;
+            this.dateTime = dateTime;
+        }
+
+        /**
+         * The positions in {@code rs}, or null when it isn't exactly the
+         * table's five columns (e.g. a column was added by hand), so the
+         * caller can fall back to the generic path without losing data.
+         */
+        public static Columns of(ResultSet rs, ReadingStore.Metric metric) throws SQLException {
+            ResultSetMetaData meta = rs.getMetaData();
+            if (meta.getColumnCount() != 5) return null;
+            int id = 0, lat = 0, lon = 0, value = 0, time = 0;
+            for (int i = 1; i <= 5; i++) {
+                String name = meta.getColumnName(i);
+                if (name.equalsIgnoreCase("id")) id = i;
+                else if (name.equalsIgnoreCase("latitude")) lat = i;
+                else if (name.equalsIgnoreCase("longitude")) lon = i;
+                else if (name.equalsIgnoreCase(metric.column)) value = i;
+                else if (name.equalsIgnoreCase("dateTime")) time = i;
+            }
+            if (id == 0 || lat == 0 || lon == 0 || value == 0 || time == 0) return null;
+            return new Columns(metric, id, lat, lon, value, time);
+        }
+    }
+
+    /** The current row as a record. */
+    public static Row read(ResultSet rs, Columns c) throws SQLException {
+        long id = rs.getLong(c.id);
+        double lat = rs.getDouble(c.latitude);
+        double lon = rs.getDouble(c.longitude);
+        double value = rs.getDouble(c.value);
+        if (value == 0 && rs.wasNull()) value = Double.NaN;
+        String time = rs.getString(c.dateTime);
+        return c.metric == ReadingStore.Metric.AQI
+                ? new AirQualityReading(id, lat, lon, value, time)
+                : new UvReading(id, lat, lon, value, time);
+    }
+
+    /** Writes the current row straight from the result set; only the dateTime string is allocated. */
+    public static void write(JsonGenerator gen, ResultSet rs, Columns c) throws SQLException, IOException {
+        double value = rs.getDouble(c.value);
+        boolean valueNull = value == 0 && rs.wasNull();
+
+        gen.writeStartObject();
+        gen.writeFieldName(ID);
+        gen.writeNumber(rs.getLong(c.id));
+        gen.writeFieldName(LATITUDE);
+        gen.writeNumber(rs.getDouble(c.latitude));
+        gen.writeFieldName(LONGITUDE);
+        gen.writeNumber(rs.getDouble(c.longitude));
+        gen.writeFieldName(valueName(c.metric));
+        if (valueNull) gen.writeNull(); else gen.writeNumber(value);
+        gen.writeFieldName(DATE_TIME);
+        gen.writeString(rs.getString(c.dateTime));
+        gen.writeEndObject();
+    }
+
+    /** Writes a record in the same shape as {@link #write(JsonGenerator, ResultSet, Columns)}. */
+    public static void write(JsonGenerator gen, Row row) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(ID);
+        gen.writeNumber(row.id());
+        gen.writeFieldName(LATITUDE);
+        gen.writeNumber(row.latitude());
+        gen.writeFieldName(LONGITUDE);
+        gen.writeNumber(row.longitude());
+        gen.writeFieldName(row instanceof AirQualityReading ? AIR_QUALITY : UV_INDEX);
+        if (Double.isNaN(row.value())) gen.writeNull(); else gen.writeNumber(row.value());
+        gen.writeFieldName(DATE_TIME);
+        gen.writeString(row.dateTime());
+        gen.writeEndObject();
+    }
+
+    /**
+     * The newest reading at each of {@code locations} (null where there is none), in one
+     * query: a correlated lookup per location on the (latitude, longitude, dateTime) index.
+     */
+    public static Row[] latest(ConnectionPool.PooledConnection conn, ReadingStore.Metric metric,
+                               List<Location> locations) throws SQLException {
+        Row[] out = new Row[locations.size()];
+        if (locations.isEmpty()) return out;
+
+        // same SQL text for the same number of locations, so it stays in the statement cache
+        String t = metric.table;
+        String sql = "SELECT * FROM " + t + " WHERE id IN (SELECT (SELECT id FROM " + t
+                + " WHERE latitude = v.column1 AND longitude = v.column2 ORDER BY dateTime DESC, id DESC LIMIT 1)"
+                + " FROM (VALUES " + String.join(", ", Collections.nCopies(locations.size(), "(?, ?)")) + ") v)";
+        PreparedStatement ps = conn.prepare(sql);
+        int i = 1;
+        for (Location l : locations) {
+            ps.setDouble(i++, l.latitude());
+            ps.setDouble(i++, l.longitude());
+        }
+
+        Map<Location, Row> found = new HashMap<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            Columns columns = Columns.of(rs, metric);
+            if (columns == null) throw new SQLException(t + " does not have the expected columns");
+            while (rs.next()) {
+                Row row = read(rs, columns);
+                found.put(new Location(row.latitude(), row.longitude()), row);
+            }
+        }
+        for (int j = 0; j < out.length; j++) {
+            out[j] = found.get(locations.get(j));
+        }
+        return out;
+    }
+
+    private static SerializableString valueName(ReadingStore.Metric metric) {
+        return metric == ReadingStore.Metric.AQI ? AIR_QUALITY : UV_INDEX;
+    }
+}
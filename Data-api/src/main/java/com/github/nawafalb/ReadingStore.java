@@ -0,0 +1,155 @@
+package com.github.nawafalb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Write path for the reading tables. Readings are only ever appended;
+ * old rows go through {@link #prune} in small batches instead of
+ * clearing the table on every load. Every append also updates the
+ * hourly and daily {@link Rollups} in the same transaction.
+ */
+public class ReadingStore {
+
+    public enum Metric {
+        AQI("user_DataAirQuality", "air_quality"),
+        UV("user_DataUV", "uv_index");
+
+        public final String table;
+        public final String column;
+
+        Metric(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+
+        /** The metric stored in {@code table}, or null for any other table. */
+        public static Metric forTable(String table) {
+            for (Metric m : values()) {
+                if (m.table.equalsIgnoreCase(table)) return m;
+            }
+            return null;
+        }
+
+        String insertSql() {
+            return "INSERT INTO " + table + "(latitude, longitude, " + column + ", dateTime) VALUES(?,?,?,?)";
+        }
+    }
+
+    public record Reading(Metric metric, double latitude, double longitude, double value, LocalDateTime at) { }
+
+    // Fixed width so dateTime strings sort and compare correctly as text
+    public static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    static final int RETENTION_DAYS = ServerExecutors.intEnv("RETENTION_DAYS", 365);
+    static final int PRUNE_BATCH = ServerExecutors.intEnv("PRUNE_BATCH", 500);
+
+    private static final Metrics.Histogram BATCH_WRITES = Metrics.histogram("db_write_duration_seconds",
+            "Time to write and commit a batch of readings", "service", "data-api", "op", "append_batch");
+
+    private ReadingStore() { }
+
+    public static String format(LocalDateTime time) {
+        return TIME_FORMAT.format(time);
+    }
+
+    // Indexes the read and prune paths rely on, and the rollup table. Cheap no-ops once they exist.
+    public static void ensureSchema() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect();
+             Statement stmt = conn.connection().createStatement()) {
+            for (Metric m : Metric.values()) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_" + m.table + "_dateTime ON " + m.table + " (dateTime)");
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_" + m.table + "_loc_time ON " + m.table + " (latitude, longitude, dateTime)");
+            }
+            DataVersion.ensureSchema(stmt);
+            Rollups.ensureSchema(conn.connection());
+        }
+    }
+
+    // Writes a batch of readings (any mix of metrics) in one transaction with
+    // JDBC batching, then bumps the data version once for the whole batch.
+    public static int appendBatch(List<Reading> readings) throws SQLException {
+        if (readings.isEmpty()) return 0;
+
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            Connection c = conn.connection();
+            EnumMap<Metric, PreparedStatement> statements = new EnumMap<>(Metric.class);
+            c.setAutoCommit(false);
+            try {
+                for (Reading r : readings) {
+                    PreparedStatement ps = statements.get(r.metric());
+                    if (ps == null) {
+                        ps = conn.prepare(r.metric().insertSql());
+                        statements.put(r.metric(), ps);
+                    }
+                    ps.setDouble(1, r.latitude());
+                    ps.setDouble(2, r.longitude());
+                    ps.setDouble(3, r.value());
+                    ps.setString(4, format(r.at()));
+                    ps.addBatch();
+                }
+                for (PreparedStatement ps : statements.values()) {
+                    ps.executeBatch();
+                }
+                Rollups.add(conn, readings);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            DataVersion.bump(c);
+            follow(c);
+        }
+        BATCH_WRITES.recordSince(start);
+        return readings.size();
+    }
+
+    // Deletes readings older than the retention window, PRUNE_BATCH rows per transaction
+    // so a large backlog never holds the write lock for long. Returns rows removed.
+    public static int prune(Metric metric, Duration retention) throws SQLException {
+        String cutoff = format(LocalDateTime.now().minus(retention));
+        String sql = "DELETE FROM " + metric.table + " WHERE id IN (SELECT id FROM " + metric.table
+                + " WHERE dateTime < ? ORDER BY dateTime LIMIT ?)";
+
+        int total = 0;
+        try (ConnectionPool.PooledConnection conn = DatabaseHelper.connect()) {
+            PreparedStatement ps = conn.prepare(sql);
+            int n;
+            do {
+                ps.setString(1, cutoff);
+                ps.setInt(2, PRUNE_BATCH);
+                n = ps.executeUpdate();
+                total += n;
+            } while (n == PRUNE_BATCH);
+
+            if (total > 0) {
+                DataVersion.bump(conn.connection());
+                follow(conn.connection());
+            }
+        }
+        return total;
+    }
+
+    public static int prune(Metric metric) throws SQLException {
+        return prune(metric, Duration.ofDays(RETENTION_DAYS));
+    }
+
+    // Brings the in-memory latest readings up to the write; it has committed, so a failure is only logged
+    private static void follow(Connection c) {
+        try {
+            LatestStore.catchUp(c);
+        } catch (SQLException e) {
+            System.err.println("Latest store catch-up failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.nawafalb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of serialized JSON responses, keyed by path and query.
+ * Entries are dropped when they outlive the TTL, when the {@link DataVersion}
+ * they were built at is no longer current, or (least recently used first)
+ * when the cache goes over its byte budget. Compressed forms of a body are
+ * kept with its entry once made, and count towards the budget too.
+ */
+public class ResponseCache {
+
+    public static final class Entry {
+        public final byte[] body;
+        public final long version;
+        final long createdNanos;
+        final Compression.Variants variants;
+        int accounted;  // bytes counted for this entry, guarded by the cache
+
+        Entry(byte[] body, long version, long createdNanos) {
+            this.body = body;
+            this.version = version;
+            this.createdNanos = createdNanos;
+            this.variants = new Compression.Variants(body);
+            this.accounted = body.length;
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ResponseCache(long maxBytes, int maxEntryBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    static ResponseCache fromEnv() {
+        ResponseCache cache = new ResponseCache(
+                ServerExecutors.intEnv("CACHE_MAX_KB", 32 * 1024) * 1024L,
+                ServerExecutors.intEnv("CACHE_MAX_ENTRY_KB", 1024) * 1024,
+                ServerExecutors.intEnv("CACHE_TTL_MS", 60_000));
+
+        Metrics.counter("response_cache_hits_total", "Responses served from the cache", cache.hits::sum, "service", "data-api");
+        Metrics.counter("response_cache_misses_total", "Lookups that had to run the query", cache.misses::sum, "service", "data-api");
+        Metrics.counter("response_cache_evictions_total", "Entries dropped to stay under CACHE_MAX_KB", cache.evictions::sum, "service", "data-api");
+        Metrics.counter("response_cache_invalidations_total", "Entries dropped because the data changed or expired", cache.invalidations::sum, "service", "data-api");
+        Metrics.gauge("response_cache_bytes", "Bytes held by cached bodies", () -> cache.bytes, "service", "data-api");
+        return cache;
+    }
+
+    public boolean enabled() { return maxBytes > 0; }
+
+    /** Largest body worth capturing; anything bigger is served uncached. */
+    public int maxEntryBytes() { return maxEntryBytes; }
+
+    public synchronized Entry get(String key, long currentVersion) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        if (e.version != currentVersion || System.nanoTime() - e.createdNanos > ttlNanos) {
+            remove(key, e);
+            invalidations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e;
+    }
+
+    /** Caches {@code body}; returns the new entry, or null if it wasn't cached. */
+    public synchronized Entry put(String key, byte[] body, long version) {
+        if (!enabled() || body.length > maxEntryBytes) return null;
+        Entry e = new Entry(body, version, System.nanoTime());
+        Entry old = entries.put(key, e);
+        if (old != null) bytes -= old.accounted;
+        bytes += e.accounted;
+        trim();
+        return e;
+    }
+
+    /** The entry's body in {@code coding}, compressed on first use and then kept with the entry. */
+    public byte[] body(String key, Entry e, Compression.Coding coding) {
+        byte[] b = e.variants.get(coding);
+        if (coding != Compression.Coding.IDENTITY) {
+            synchronized (this) {
+                // only while it is still cached; a removed entry has already been taken off the total
+                int size = e.variants.size();
+                if (size != e.accounted && entries.get(key) == e) {
+                    bytes += size - e.accounted;
+                    e.accounted = size;
+                    trim();
+                }
+            }
+        }
+        return b;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue().accounted;
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key, Entry e) {
+        entries.remove(key);
+        bytes -= e.accounted;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("entries", entries.size());
+        m.put("bytes", bytes);
+        m.put("hits", hits.sum());
+        m.put("misses", misses.sum());
+        m.put("evictions", evictions.sum());
+        m.put("invalidations", invalidations.sum());
+        return m;
+    }
+
+    /**
+     * Passes writes through while keeping a copy, up to a limit. Used to fill the
+     * cache from a streamed response without buffering large bodies.
+     */
+    static final class Capture extends FilterOutputStream {
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        Capture(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            keep(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            keep(b, off, len);
+        }
+
+        private void keep(byte[] b, int off, int len) {
+            if (copy == null) return;
+            if (copy.size() + len > limit) {
+                copy = null;
+            } else {
+                copy.write(b, off, len);
+            }
+        }
+
+        /** The captured body, or null if it went over the limit. */
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+}
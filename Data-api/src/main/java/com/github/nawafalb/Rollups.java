@@ -0,0 +1,177 @@
+package com.github.nawafalb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hourly and daily count/sum/min/max of each metric per location, kept in
+ * reading_rollup next to the raw readings. {@link ReadingStore} adds every
+ * reading to its two buckets in the same transaction as the insert, so the
+ * rollups always agree with what was written. Pruning leaves them alone:
+ * trends reach further back than RETENTION_DAYS.
+ *
+ * The table is created and filled from the readings already stored the
+ * first time {@link #ensureSchema} runs against a database.
+ */
+final class Rollups {
+
+    enum Bucket {
+        HOUR(ChronoUnit.HOURS, "substr(dateTime, 1, 10) || 'T' || substr(dateTime, 12, 2) || ':00:00.000'"),
+        DAY(ChronoUnit.DAYS, "substr(dateTime, 1, 10) || 'T00:00:00.000'");
+
+        final ChronoUnit unit;
+        // Start of the bucket of a stored dateTime, in the same form as start(); also takes 'yyyy-MM-dd HH:mm:ss'
+        final String startSql;
+
+        Bucket(ChronoUnit unit, String startSql) {
+            this.unit = unit;
+            this.startSql = startSql;
+        }
+
+        String start(LocalDateTime at) {
+            return ReadingStore.format(at.truncatedTo(unit));
+        }
+
+        String param() { return name().toLowerCase(Locale.ROOT); }
+
+        static Bucket parse(String value) {
+            if (value == null || value.equalsIgnoreCase("hour")) return HOUR;
+            if (value.equalsIgnoreCase("day")) return DAY;
+            throw new IllegalArgumentException("bucket must be hour or day");
+        }
+    }
+
+    /** One bucket of one location. */
+    record Row(double latitude, double longitude, String start, long count, double sum, double min, double max) {
+        double avg() { return sum / count; }
+    }
+
+    private static final String UPSERT_SQL = "INSERT INTO reading_rollup "
+            + "(metric, bucket, latitude, longitude, start, readings, total, low, high) VALUES (?, ?, ?, ?, ?, 1, ?, ?, ?) "
+            + "ON CONFLICT (metric, bucket, latitude, longitude, start) DO UPDATE SET "
+            + "readings = readings + 1, total = total + excluded.total, "
+            + "low = min(low, excluded.low), high = max(high, excluded.high)";
+
+    private Rollups() { }
+
+    static ReadingStore.Metric parseMetric(String value) {
+        if (value == null || value.isBlank()) throw new IllegalArgumentException("metric is required (airquality or uv)");
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "airquality", "aqi" -> ReadingStore.Metric.AQI;
+            case "uv" -> ReadingStore.Metric.UV;
+            default -> throw new IllegalArgumentException("metric must be airquality or uv");
+        };
+    }
+
+    // Creates and backfills the table in one transaction, so a loader can't append in between and be counted twice
+    static void ensureSchema(Connection conn) throws SQLException {
+        if (exists(conn)) return;
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE reading_rollup (metric TEXT NOT NULL, bucket TEXT NOT NULL, "
+                    + "latitude REAL NOT NULL, longitude REAL NOT NULL, start TEXT NOT NULL, "
+                    + "readings INTEGER NOT NULL, total REAL NOT NULL, low REAL NOT NULL, high REAL NOT NULL, "
+                    + "PRIMARY KEY (metric, bucket, latitude, longitude, start)) WITHOUT ROWID");
+            stmt.executeUpdate("CREATE INDEX idx_reading_rollup_start ON reading_rollup (metric, bucket, start)");
+            int rows = 0;
+            for (ReadingStore.Metric m : ReadingStore.Metric.values()) {
+                for (Bucket b : Bucket.values()) {
+                    rows += stmt.executeUpdate("INSERT INTO reading_rollup "
+                            + "(metric, bucket, latitude, longitude, start, readings, total, low, high) "
+                            + "SELECT '" + m.name() + "', '" + b.param() + "', latitude, longitude, " + b.startSql + ", "
+                            + "count(*), sum(" + m.column + "), min(" + m.column + "), max(" + m.column + ") "
+                            + "FROM " + m.table + " WHERE " + m.column + " IS NOT NULL AND dateTime IS NOT NULL "
+                            + "GROUP BY latitude, longitude, " + b.startSql);
+                }
+            }
+            conn.commit();
+            System.out.println("Created reading_rollup with " + rows + " buckets from existing readings.");
+        } catch (SQLException e) {
+            conn.rollback();
+            // another process created it first
+            if (!exists(conn)) throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static boolean exists(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'reading_rollup'")) {
+            return rs.next();
+        }
+    }
+
+    /** Adds {@code readings} to their buckets; call inside the transaction that inserts them. */
+    static void add(ConnectionPool.PooledConnection conn, List<ReadingStore.Reading> readings) throws SQLException {
+        PreparedStatement ps = conn.prepare(UPSERT_SQL);
+        try {
+            for (ReadingStore.Reading r : readings) {
+                for (Bucket b : Bucket.values()) {
+                    ps.setString(1, r.metric().name());
+                    ps.setString(2, b.param());
+                    ps.setDouble(3, r.latitude());
+                    ps.setDouble(4, r.longitude());
+                    ps.setString(5, b.start(r.at()));
+                    ps.setDouble(6, r.value());
+                    ps.setDouble(7, r.value());
+                    ps.setDouble(8, r.value());
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        } finally {
+            // the statement is cached, so don't leave half a batch on it after a failure
+            ps.clearBatch();
+        }
+    }
+
+    /**
+     * Buckets starting in [from, to) (either may be null), ordered by location
+     * then start; every location when {@code locations} is empty. At most
+     * {@code limit} rows are returned, so a caller can ask for one more than it
+     * allows to find out the range was too wide.
+     */
+    static List<Row> query(ConnectionPool.PooledConnection conn, ReadingStore.Metric metric, Bucket bucket,
+                           String from, String to, List<Location> locations, int limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT latitude, longitude, start, readings, total, low, high "
+                + "FROM reading_rollup WHERE metric = ? AND bucket = ?");
+        if (from != null) sql.append(" AND start >= ?");
+        if (to != null) sql.append(" AND start < ?");
+        if (!locations.isEmpty()) {
+            sql.append(" AND (latitude, longitude) IN (VALUES ")
+                    .append(String.join(", ", Collections.nCopies(locations.size(), "(?, ?)"))).append(")");
+        }
+        sql.append(" ORDER BY latitude, longitude, start LIMIT ?");
+
+        PreparedStatement ps = conn.prepare(sql.toString());
+        int i = 1;
+        ps.setString(i++, metric.name());
+        ps.setString(i++, bucket.param());
+        if (from != null) ps.setString(i++, from);
+        if (to != null) ps.setString(i++, to);
+        for (Location l : locations) {
+            ps.setDouble(i++, l.latitude());
+            ps.setDouble(i++, l.longitude());
+        }
+        ps.setInt(i, limit);
+
+        List<Row> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new Row(rs.getDouble(1), rs.getDouble(2), rs.getString(3),
+                        rs.getLong(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7)));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.nawafalb;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a SQLite file with made-up readings for benchmarks and load
+ * tests: both reading tables with the real schema and indexes, and
+ * {@code rows} rows per table spread over a fixed set of locations a
+ * minute apart. The same size always gives the same data.
+ */
+public final class SampleData {
+
+    private static final int LOCATIONS = 100;
+
+    private SampleData() { }
+
+    /** Creates the tables in {@code file} (which should not exist yet) and fills them. */
+    public static void create(Path file, int rows) throws SQLException {
+        List<Location> locations = Location.generate(LOCATIONS, 42);
+        Random rnd = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = conn.createStatement()) {
+            for (ReadingStore.Metric m : ReadingStore.Metric.values()) {
+                stmt.executeUpdate("CREATE TABLE " + m.table + " (id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "latitude REAL NOT NULL, longitude REAL NOT NULL, " + m.column + " REAL, "
+                        + "dateTime DATETIME DEFAULT CURRENT_TIMESTAMP)");
+                stmt.executeUpdate("CREATE INDEX idx_" + m.table + "_loc_time ON " + m.table + " (latitude, longitude, dateTime)");
+                stmt.executeUpdate("CREATE INDEX idx_" + m.table + "_dateTime ON " + m.table + " (dateTime)");
+            }
+
+            conn.setAutoCommit(false);
+            for (ReadingStore.Metric m : ReadingStore.Metric.values()) {
+                try (PreparedStatement ps = conn.prepareStatement(m.insertSql())) {
+                    for (int i = 0; i < rows; i++) {
+                        Location loc = locations.get(i % LOCATIONS);
+                        double value = m == ReadingStore.Metric.AQI ? 10 + rnd.nextInt(290) : rnd.nextInt(120) / 10.0;
+                        ps.setDouble(1, loc.latitude());
+                        ps.setDouble(2, loc.longitude());
+                        ps.setDouble(3, value);
+                        ps.setString(4, ReadingStore.format(start.plusMinutes(i)));
+                        ps.addBatch();
+                        if (i % 1000 == 999) ps.executeBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+    }
+}
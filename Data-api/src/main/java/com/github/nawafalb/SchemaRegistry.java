@@ -0,0 +1,163 @@
+package com.github.nawafalb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tables the /table endpoints may read, loaded from sqlite_master and
+ * PRAGMA table_info. A request names a table; only names found here ever
+ * reach SQL, and then as a quoted identifier, so an unknown or malformed
+ * name is turned away without touching the database.
+ *
+ * Each table keeps its by-id SQL and the list SQL for every query shape it
+ * has seen, so the pooled connections' statement caches see the same text
+ * every time. The registry is reloaded when SQLite's schema_version moves:
+ * polled in the background, and checked on a miss so a freshly created
+ * table is available straight away.
+ */
+public final class SchemaRegistry {
+
+    // Bookkeeping tables that aren't data
+    private static final List<String> HIDDEN = List.of("data_version");
+    private static final long MISS_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile Map<String, Table> tables = Map.of();
+    private static volatile long schemaVersion = -1;
+    private static volatile long lastMissCheck;
+    private static ScheduledExecutorService poller;
+
+    private SchemaRegistry() { }
+
+    /** A readable table and what the list endpoint can do with it. */
+    public static final class Table {
+        public final String name;
+        public final List<String> columns;
+        final boolean hasDateTime;
+        // Only writes to the reading tables bump data_version; anything else may change under
+        // an unchanged version, so it gets no ETag and stays out of the response cache
+        final boolean versioned;
+        final String byIdSql;
+        private final String quoted;
+        private final Map<Integer, String> listSql = new ConcurrentHashMap<>();
+
+        Table(String name, List<String> columns) {
+            this.name = name;
+            this.columns = Collections.unmodifiableList(columns);
+            this.hasDateTime = columns.stream().anyMatch(c -> c.equalsIgnoreCase("dateTime"));
+            this.versioned = ReadingStore.Metric.forTable(name) != null;
+            this.quoted = "\"" + name.replace("\"", "\"\"") + "\"";
+            this.byIdSql = "SELECT * FROM " + quoted + " WHERE id = ?";
+        }
+
+        /** SQL for {@code query}, built once per query shape. */
+        String listSql(ListQuery query) {
+            return listSql.computeIfAbsent(query.shape(), s -> query.sql(quoted));
+        }
+
+        /** Why this table can't answer {@code query}, or null if it can. */
+        String unsupported(ListQuery query) {
+            if (!hasDateTime && (query.key == ListQuery.Key.DATETIME || query.from != null || query.to != null)) {
+                return "Table " + name + " has no dateTime column";
+            }
+            return null;
+        }
+    }
+
+    /** The table called {@code name} (case-insensitive, like SQLite), or null if there is none. */
+    public static Table table(String name) {
+        if (name == null) return null;
+        String key = name.toLowerCase(Locale.ROOT);
+        Table t = tables.get(key);
+        if (t != null) return t;
+
+        // A table created since the last poll; checked at most once a second so bad names can't hammer the DB
+        long now = System.nanoTime();
+        if (now - lastMissCheck < MISS_CHECK_INTERVAL_NANOS) return null;
+        lastMissCheck = now;
+        try {
+            refreshIfChanged();
+        } catch (SQLException e) {
+            System.err.println("Failed to refresh schema: " + e.getMessage());
+        }
+        return tables.get(key);
+    }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> s = new HashMap<>();
+        s.put("schemaVersion", schemaVersion);
+        s.put("tables", tables.values().stream().map(t -> t.name).sorted().toList());
+        return s;
+    }
+
+    /** Loads the registry and keeps it current, checking schema_version every {@code intervalMillis}. */
+    public static synchronized void startPolling(long intervalMillis) throws SQLException {
+        refreshIfChanged();
+        if (poller != null) return;
+
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "schema-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                refreshIfChanged();
+            } catch (SQLException e) {
+                System.err.println("Failed to poll schema: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void refreshIfChanged() throws SQLException {
+        try (ConnectionPool.PooledConnection pc = DatabaseHelper.connect()) {
+            Connection conn = pc.connection();
+            long version = schemaVersion(conn);
+            if (version == schemaVersion) return;
+            tables = load(conn);
+            schemaVersion = version;
+            System.out.println("Schema registry loaded " + tables.size() + " tables (schema version " + version + ").");
+        }
+    }
+
+    private static long schemaVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA schema_version")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Tables with an id column; without one there is nothing to look up or page by
+    private static Map<String, Table> load(Connection conn) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\'")) {
+            while (rs.next()) names.add(rs.getString(1));
+        }
+
+        Map<String, Table> loaded = new HashMap<>();
+        for (String name : names) {
+            if (HIDDEN.contains(name)) continue;
+            List<String> columns = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA table_info(\"" + name.replace("\"", "\"\"") + "\")")) {
+                while (rs.next()) columns.add(rs.getString("name"));
+            }
+            if (columns.stream().noneMatch(c -> c.equalsIgnoreCase("id"))) continue;
+            loaded.put(name.toLowerCase(Locale.ROOT), new Table(name, columns));
+        }
+        return Map.copyOf(loaded);
+    }
+}
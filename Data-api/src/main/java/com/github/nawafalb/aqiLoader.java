@@ -1,75 +1,47 @@
 package com.github.nawafalb;
 
 import io.github.cdimascio.dotenv.Dotenv;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.Statement;
-
-import java.time.LocalDateTime;
+import java.util.List;
 import java.io.FileWriter;
 
+// One-shot AQI load for the locations in .env (LOCATIONS_FILE or LAT/LON)
 public class aqiLoader {
     public static void main(String[] args) throws Exception {
         Dotenv env = Dotenv.load();
 
         String aqicnToken = env.get("AQICN_TOKEN");
-        String lat = env.get("LAT");
-        String lon = env.get("LON");
+        List<Location> locations = IngestionEngine.locations(env);
 
-        if (aqicnToken == null || lat == null || lon == null) {
-            System.err.println("Missing AQICN_TOKEN or LAT/LON in .env");
+        if (aqicnToken == null || locations.isEmpty()) {
+            System.err.println("Missing AQICN_TOKEN or LAT/LON (or LOCATIONS_FILE) in .env");
             return;
         }
 
-        HttpClient client = HttpClient.newHttpClient();
-        ObjectMapper mapper = new ObjectMapper();
-
         // --- AQICN API ---
-        String aqicnUrl = "https://api.waqi.info/feed/geo:" + lat + ";" + lon + "/?token=" + aqicnToken;
-        HttpRequest aqiRequest = HttpRequest.newBuilder()
-                .uri(URI.create(aqicnUrl))
-                .build();
+        Provider provider = Provider.aqicn(env.get("AQICN_BASE_URL", IngestionEngine.AQICN_URL),
+                aqicnToken, IngestionEngine.rate(env, "AQICN_RPS", 10));
 
-        HttpResponse<String> aqiResponse = client.send(aqiRequest, HttpResponse.BodyHandlers.ofString());
-        JsonNode aqiJson = mapper.readTree(aqiResponse.body());
-        int aqi = aqiJson.path("data").path("aqi").asInt();
+        ReadingStore.ensureSchema();
+        IngestionEngine.Result result = IngestionEngine.fromEnv().run(locations, List.of(provider));
 
-        System.out.println("🌫 AQI: " + aqi + " @ LAT=" + lat + ", LON=" + lon);
+        System.out.println("🌫 AQI: " + result);
 
-        saveToDatabaseAqi(lat, lon, aqi);
+        saveSummaryAqi(result);
     }
 
-    private static void saveToDatabaseAqi(String lat, String lon, int aqi) {
-        String deleteSQL = "DELETE FROM user_DataAirQuality;";
-        String insertSQL = "INSERT INTO user_DataAirQuality(latitude, longitude, air_quality, dateTime) VALUES(?,?,?,?);";
-
-        try (Connection conn = DatabaseHelper.connect();
-            Statement stmt = conn.createStatement();
-            PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
-
-        // clear table 
-            stmt.executeUpdate(deleteSQL);
-
-            pstmt.setDouble(1, Double.parseDouble(lat));
-            pstmt.setDouble(2, Double.parseDouble(lon));
-            pstmt.setInt(3, aqi);
-            pstmt.setString(4, LocalDateTime.now().toString());
-            pstmt.executeUpdate();
+    private static void saveSummaryAqi(IngestionEngine.Result result) {
+        try {
+            // history is kept and trimmed by the retention window
+            int pruned = ReadingStore.prune(ReadingStore.Metric.AQI);
 
-        // summary 
+            // summary
             try (FileWriter w = new FileWriter("summary_aqi.txt", false)) {
                 w.write("AQI load complete\n");
-                w.write("Timestamp: " + LocalDateTime.now() + "\n");
-                w.write("Rows inserted: 1\n");
+                w.write("Timestamp: " + ReadingStore.format(result.startedAt()) + "\n");
+                w.write("Rows inserted: " + result.written() + "\n");
+                w.write("Rows failed: " + result.failed() + "\n");
+                w.write("Rows pruned: " + pruned + "\n");
             }
 
             System.out.println("Saved AQI to DB + summary_aqi.txt");
@@ -1,77 +1,47 @@
 package com.github.nawafalb;
 
 import io.github.cdimascio.dotenv.Dotenv;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.Statement;
-
-import java.time.LocalDateTime;
+import java.util.List;
 import java.io.FileWriter;
 
+// One-shot UV load for the locations in .env (LOCATIONS_FILE or LAT/LON)
 public class uvLoader {
     public static void main(String[] args) throws Exception {
         Dotenv env = Dotenv.load();
 
         String openUvKey = env.get("OPENUV_KEY");
-        String lat = env.get("LAT");
-        String lon = env.get("LON");
+        List<Location> locations = IngestionEngine.locations(env);
 
-        if (openUvKey == null || lat == null || lon == null) {
-            System.err.println("Missing OPENUV_KEY or LAT/LON in .env");
+        if (openUvKey == null || locations.isEmpty()) {
+            System.err.println("Missing OPENUV_KEY or LAT/LON (or LOCATIONS_FILE) in .env");
             return;
         }
 
-        HttpClient client = HttpClient.newHttpClient();
-        ObjectMapper mapper = new ObjectMapper();
-
         // --- OpenUV API ---
-        String uvUrl = "https://api.openuv.io/api/v1/uv?lat=" + lat + "&lng=" + lon;
-        HttpRequest uvRequest = HttpRequest.newBuilder()
-                .uri(URI.create(uvUrl))
-                .header("x-access-token", openUvKey)
-                .build();
+        Provider provider = Provider.openUv(env.get("OPENUV_BASE_URL", IngestionEngine.OPENUV_URL),
+                openUvKey, IngestionEngine.rate(env, "OPENUV_RPS", 5));
 
-        HttpResponse<String> uvResponse = client.send(uvRequest, HttpResponse.BodyHandlers.ofString());
-        JsonNode uvJson = mapper.readTree(uvResponse.body());
-        double uvIndex = uvJson.path("result").path("uv").asDouble();
+        ReadingStore.ensureSchema();
+        IngestionEngine.Result result = IngestionEngine.fromEnv().run(locations, List.of(provider));
 
-        System.out.println("UV Index: " + uvIndex + " @ LAT=" + lat + ", LON=" + lon);
+        System.out.println("UV: " + result);
 
-        saveToDatabaseUv(lat, lon, uvIndex);
+        saveSummaryUv(result);
     }
 
-    private static void saveToDatabaseUv(String lat, String lon, double uvIndex) {
-        String deleteSQL = "DELETE FROM user_DataUV;";
-        String insertSQL = "INSERT INTO user_DataUV(latitude, longitude, uv_index, dateTime) VALUES(?,?,?,?);";
-
-        try (Connection conn = DatabaseHelper.connect();
-            Statement stmt = conn.createStatement();
-            PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
-
-        // clear table
-            stmt.executeUpdate(deleteSQL);
-
-        // insert new UV row
-            pstmt.setDouble(1, Double.parseDouble(lat));
-            pstmt.setDouble(2, Double.parseDouble(lon));
-            pstmt.setDouble(3, uvIndex);
-            pstmt.setString(4, LocalDateTime.now().toString());
-            pstmt.executeUpdate();
+    private static void saveSummaryUv(IngestionEngine.Result result) {
+        try {
+            // history is kept and trimmed by the retention window
+            int pruned = ReadingStore.prune(ReadingStore.Metric.UV);
 
-        // summary
+            // summary
             try (FileWriter w = new FileWriter("summary_uv.txt", false)) {
                 w.write("UV load complete\n");
-                w.write("Timestamp: " + LocalDateTime.now() + "\n");
-                w.write("Rows inserted: 1\n");
+                w.write("Timestamp: " + ReadingStore.format(result.startedAt()) + "\n");
+                w.write("Rows inserted: " + result.written() + "\n");
+                w.write("Rows failed: " + result.failed() + "\n");
+                w.write("Rows pruned: " + pruned + "\n");
             }
 
             System.out.println("Saved UV to DB + summary_uv.txt");
@@ -0,0 +1,194 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatestStoreTest {
+
+    private static final ReadingStore.Metric AQI = ReadingStore.Metric.AQI;
+
+    private static ReadingRows.Row aqi(long id, double lat, double lon, double value, String time) {
+        return new ReadingRows.AirQualityReading(id, lat, lon, value, time);
+    }
+
+    // -------- Readings --------
+
+    @Test
+    void putThenFind() {
+        LatestStore.Readings r = new LatestStore.Readings(AQI, 8);
+        r = r.put(aqi(1, 10, 20, 5, "2025-01-01T00:00"));
+        r = r.put(aqi(2, 11, 21, 6, "2025-01-01T00:00"));
+        int slot = r.find(10, 20);
+        assertTrue(slot > 0, "slot 0 is the newest row");
+        assertEquals(aqi(1, 10, 20, 5, "2025-01-01T00:00"), r.read(slot));
+        assertEquals(-1, r.find(10, 21));
+        assertEquals(3, r.size);
+    }
+
+    @Test
+    void negativeZeroFindsZero() {
+        LatestStore.Readings r = new LatestStore.Readings(AQI, 8).put(aqi(1, 0.0, 0.0, 5, "t"));
+        assertEquals(r.find(0.0, 0.0), r.find(-0.0, -0.0));
+    }
+
+    @Test
+    void growKeepsEverySlotFindable() {
+        LatestStore.Readings first = new LatestStore.Readings(ReadingStore.Metric.UV, 4);
+        LatestStore.Readings r = first;
+        for (int i = 0; i < 500; i++) r = r.put(new ReadingRows.UvReading(i + 1, i * 0.1, -i * 0.1, i, "t" + i));
+        assertNotSame(first, r);
+        assertEquals(501, r.size);
+        for (int i = 0; i < 500; i++) {
+            int slot = r.find(i * 0.1, -i * 0.1);
+            assertEquals(new ReadingRows.UvReading(i + 1, i * 0.1, -i * 0.1, i, "t" + i), r.read(slot));
+        }
+    }
+
+    @Test
+    void putKeepsTheNewestByDateTimeThenId() {
+        LatestStore.Readings r = new LatestStore.Readings(AQI, 8);
+        r = r.put(aqi(5, 1, 1, 50, "2025-01-02T00:00"));
+        r = r.put(aqi(9, 1, 1, 90, "2025-01-01T00:00"));   // higher id, older time: ignored
+        assertEquals(50, r.read(r.find(1, 1)).value());
+        r = r.put(aqi(4, 1, 1, 40, "2025-01-02T00:00"));   // same time, lower id: ignored
+        assertEquals(50, r.read(r.find(1, 1)).value());
+        r = r.put(aqi(6, 1, 1, 60, "2025-01-02T00:00"));   // same time, higher id
+        assertEquals(60, r.read(r.find(1, 1)).value());
+        assertEquals(2, r.size);
+    }
+
+    @Test
+    void newerOrdersNullTimesFirst() {
+        assertTrue(LatestStore.Readings.newer(aqi(1, 0, 0, 0, "2025"), null, 9));
+        assertFalse(LatestStore.Readings.newer(aqi(9, 0, 0, 0, null), "2025", 1));
+        assertTrue(LatestStore.Readings.newer(aqi(2, 0, 0, 0, null), null, 1));
+        assertFalse(LatestStore.Readings.newer(aqi(1, 0, 0, 0, "2025"), "2025", 1));
+    }
+
+    // A reader racing the writer must never see one row's id with another row's value
+    @Test
+    void readsAreNeverTorn() throws InterruptedException {
+        LatestStore.Readings r = new LatestStore.Readings(AQI, 8).put(aqi(1, 1, 1, 1, "0000000001"));
+        int slot = r.find(1, 1);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<ReadingRows.Row> torn = new AtomicReference<>();
+        LatestStore.Readings readings = r;
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                ReadingRows.Row row = readings.read(slot);
+                if (row.value() != row.id() || !row.dateTime().equals(String.format("%010d", row.id()))) torn.set(row);
+            }
+        });
+        reader.start();
+        for (long id = 2; id < 200_000; id++) readings.write(slot, aqi(id, 1, 1, id, String.format("%010d", id)));
+        stop.set(true);
+        reader.join();
+        assertNull(torn.get());
+    }
+
+    // -------- following the database --------
+
+    @Test
+    void catchUpSeesAPruneThatArrivesWithAnAppend(@TempDir Path dir) throws SQLException {
+        Path db = dir.resolve("latest.db");
+        SampleData.create(db, 300);   // 100 locations, 3 readings each
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            try (Statement st = conn.createStatement()) {
+                DataVersion.ensureSchema(st);
+            }
+            LatestStore.load(conn);
+            long version = LatestStore.synced();
+            List<Location> all = Location.generate(100, 42);
+            Location pruned = all.get(0);
+            Location kept = all.get(1);
+            assertNotNull(LatestStore.latest(AQI, List.of(pruned), version)[0]);
+            long oldest = oldestId(conn);
+
+            // a loader's run: append a new location and a reading for an old one, then prune
+            // everything at the first location; both bumps land before the store catches up
+            try (PreparedStatement ps = conn.prepareStatement(AQI.insertSql())) {
+                insert(ps, 50, 50, 123, "2030-01-01T00:00:00");
+                insert(ps, kept.latitude(), kept.longitude(), 77, "2030-01-01T00:00:00");
+            }
+            bump(conn);
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + AQI.table
+                    + " WHERE latitude = ? AND longitude = ?")) {
+                ps.setDouble(1, pruned.latitude());
+                ps.setDouble(2, pruned.longitude());
+                assertEquals(3, ps.executeUpdate());
+            }
+            bump(conn);
+
+            LatestStore.catchUp(conn);
+            version = LatestStore.synced();
+            ReadingRows.Row[] rows = LatestStore.latest(AQI, List.of(pruned, kept, new Location(50, 50)), version);
+            assertNull(rows[0], "pruned location still served");
+            assertEquals(77, rows[1].value());
+            assertEquals(123, rows[2].value());
+
+            // the first location's rows included the oldest id, so the oldest row moved on
+            assertNotEquals(oldest, oldestId(conn));
+            LatestStore.Newest newest = LatestStore.newest(AQI, version);
+            assertEquals(77, newest.row().value());
+            assertTrue(newest.more());
+
+            // the reload rebuilds the nearest index, which must keep the appended location
+            List<NearestIndex.Hit> near = LatestStore.locations().nearest(50, 50, 1);
+            assertEquals(new Location(50, 50), near.get(0).location());
+        }
+    }
+
+    @Test
+    void catchUpFollowsAppendsWithoutReloading(@TempDir Path dir) throws SQLException {
+        Path db = dir.resolve("latest.db");
+        SampleData.create(db, 200);
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db)) {
+            try (Statement st = conn.createStatement()) {
+                DataVersion.ensureSchema(st);
+            }
+            LatestStore.load(conn);
+            long reloads = (long) LatestStore.stats().get("reloads");
+            try (PreparedStatement ps = conn.prepareStatement(AQI.insertSql())) {
+                insert(ps, 60, 60, 1, "2030-01-01T00:00:00");
+            }
+            bump(conn);
+            LatestStore.catchUp(conn);
+            assertEquals(reloads, (long) LatestStore.stats().get("reloads"));
+            assertEquals(101, LatestStore.stats().get("aqiLocations"));
+            assertEquals(1, LatestStore.newest(AQI, LatestStore.synced()).row().value());
+        }
+    }
+
+    private static void insert(PreparedStatement ps, double lat, double lon, double value, String time) throws SQLException {
+        ps.setDouble(1, lat);
+        ps.setDouble(2, lon);
+        ps.setDouble(3, value);
+        ps.setString(4, time);
+        ps.executeUpdate();
+    }
+
+    private static void bump(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("UPDATE data_version SET version = version + 1 WHERE id = 1");
+        }
+    }
+
+    private static long oldestId(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             var rs = st.executeQuery("SELECT min(id) FROM " + AQI.table)) {
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListQueryTest {
+
+    private static ListQuery parse(String... kv) {
+        Map<String, String> params = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) params.put(kv[i], kv[i + 1]);
+        return ListQuery.parse(params);
+    }
+
+    private static String error(String... kv) {
+        return assertThrows(IllegalArgumentException.class, () -> parse(kv)).getMessage();
+    }
+
+    private static String cursor(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void noParametersIsAnUnpagedListById() {
+        ListQuery q = parse();
+        assertFalse(q.paged());
+        assertEquals(ListQuery.Key.ID, q.key);
+        assertEquals("SELECT * FROM t WHERE 1=1 ORDER BY id ASC", q.sql("t"));
+    }
+
+    @Test
+    void limitIsChecked() {
+        assertEquals(25, parse("limit", "25").limit);
+        assertEquals("limit must be a number", error("limit", "ten"));
+        assertEquals("limit must be between 1 and 1000", error("limit", "0"));
+        assertEquals("limit must be between 1 and 1000", error("limit", "1001"));
+    }
+
+    @Test
+    void bareDigitsAreAnIdCursorWithTheDefaultLimit() {
+        ListQuery q = parse("after", "42");
+        assertEquals(42L, q.afterId);
+        assertEquals(ListQuery.DEFAULT_LIMIT, q.limit);
+        assertEquals("after=<id> needs by=id", error("after", "42", "by", "dateTime"));
+        assertEquals("invalid cursor", error("after", "99999999999999999999"));
+    }
+
+    @Test
+    void idCursorRoundTrips() {
+        String c = parse("limit", "10").cursorFor(99, "ignored");
+        ListQuery next = parse("limit", "10", "after", c);
+        assertEquals(ListQuery.Key.ID, next.key);
+        assertEquals(99L, next.afterId);
+        assertNull(next.afterTime);
+    }
+
+    @Test
+    void dateTimeCursorRoundTripsAndSetsTheKey() {
+        String c = parse("limit", "10", "by", "dateTime").cursorFor(7, "2025-11-01T10:00:00");
+        ListQuery next = parse("limit", "10", "after", c);
+        assertEquals(ListQuery.Key.DATETIME, next.key);
+        assertEquals(7L, next.afterId);
+        assertEquals("2025-11-01T10:00:00", next.afterTime);
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        assertEquals("invalid cursor", error("after", "not*base64"));
+        assertEquals("invalid cursor", error("after", cursor("x:1")));
+        assertEquals("invalid cursor", error("after", cursor("i:abc")));
+        assertEquals("invalid cursor", error("after", cursor("t:2025-11-01")));
+        assertEquals("invalid cursor", error("after", cursor("t:2025-11-01|x")));
+        assertEquals("cursor does not match by=dateTime", error("after", cursor("i:5"), "by", "dateTime"));
+        assertEquals("cursor does not match by=id", error("after", cursor("t:2025-11-01|5"), "by", "id"));
+    }
+
+    @Test
+    void byAndOrderAreChecked() {
+        assertEquals("by must be id or dateTime", error("by", "name"));
+        assertEquals("order must be asc or desc", error("order", "up"));
+        assertTrue(parse("order", "DESC").descending);
+    }
+
+    @Test
+    void timesAcceptDatesAndDateTimes() {
+        assertEquals("2025-11-01T00:00", ListQuery.parseTime("from", "2025-11-01"));
+        assertEquals("2025-11-01T10:15:30", ListQuery.parseTime("from", "2025-11-01 10:15:30"));
+        assertEquals("2025-11-01T10:15:30.123", ListQuery.parseTime("to", "2025-11-01T10:15:30.123"));
+        assertNull(ListQuery.parseTime("from", ""));
+        assertEquals("to must be yyyy-MM-dd or an ISO date-time", error("to", "2025-13-01"));
+        assertEquals("from must be yyyy-MM-dd or an ISO date-time", error("from", "yesterday"));
+    }
+
+    @Test
+    void keysetSqlFollowsOrderAndKey() {
+        assertEquals("SELECT * FROM t WHERE 1=1 AND id < ? ORDER BY id DESC LIMIT ?",
+                parse("after", "5", "order", "desc").sql("t"));
+        assertEquals("SELECT * FROM t WHERE 1=1 AND (dateTime, id) > (?, ?) AND dateTime >= ? AND dateTime < ?"
+                        + " ORDER BY dateTime ASC, id ASC LIMIT ?",
+                parse("after", cursor("t:2025-11-01|5"), "from", "2025-11-01", "to", "2025-11-02").sql("t"));
+    }
+
+    @Test
+    void shapeSeparatesQueriesWithDifferentSql() {
+        assertEquals(parse("limit", "5").shape(), parse("limit", "50").shape());
+        assertNotEquals(parse("limit", "5").shape(), parse("limit", "5", "order", "desc").shape());
+        assertNotEquals(parse().shape(), parse("from", "2025-11-01").shape());
+    }
+
+    @Test
+    void newestOnlyIsLimitOneDescendingById() {
+        assertTrue(parse("limit", "1", "order", "desc").newestOnly());
+        assertFalse(parse("limit", "1").newestOnly());
+        assertFalse(parse("limit", "1", "order", "desc", "by", "dateTime").newestOnly());
+        assertFalse(parse("limit", "1", "order", "desc", "from", "2025-11-01").newestOnly());
+    }
+
+    @Test
+    void chunkAndAfterKeepTheRestOfTheQuery() {
+        ListQuery q = parse("by", "dateTime", "order", "desc", "from", "2025-11-01");
+        ListQuery next = q.chunk(3).after(9, "2025-11-01T05:00");
+        assertEquals(3, next.limit);
+        assertEquals(9L, next.afterId);
+        assertEquals("2025-11-01T05:00", next.afterTime);
+        assertTrue(next.descending);
+        assertEquals(q.from, next.from);
+    }
+
+    // Rows sharing a dateTime must be split across pages by id, with none skipped or repeated
+    @Test
+    void pagingByDateTimeBreaksTiesById() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE TABLE t (id INTEGER PRIMARY KEY, dateTime TEXT)");
+                st.execute("INSERT INTO t VALUES (1,'2025-11-01T10:00'),(2,'2025-11-01T09:00'),(3,'2025-11-01T10:00'),"
+                        + "(4,'2025-11-01T10:00'),(5,'2025-11-01T08:00'),(6,'2025-11-02T00:00'),(7,'2025-10-31T23:59')");
+            }
+            assertEquals(List.of(5L, 2L, 1L, 3L, 4L), page(conn, "order", "asc"));
+            assertEquals(List.of(4L, 3L, 1L, 2L, 5L), page(conn, "order", "desc"));
+        }
+    }
+
+    // Walks every page of by=dateTime from=2025-11-01 to=2025-11-02, two rows at a time
+    private static List<Long> page(Connection conn, String... order) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        String after = null;
+        String lastTime = null;
+        do {
+            List<String> kv = new ArrayList<>(List.of("limit", "2", "by", "dateTime",
+                    "from", "2025-11-01", "to", "2025-11-02", order[0], order[1]));
+            if (after != null) kv.addAll(List.of("after", after));
+            ListQuery q = parse(kv.toArray(new String[0]));
+            after = null;
+            try (PreparedStatement ps = conn.prepareStatement(q.sql("t"))) {
+                q.bind(ps);
+                try (ResultSet rs = ps.executeQuery()) {
+                    int n = 0;
+                    while (rs.next()) {
+                        if (n++ == q.limit) {
+                            after = q.cursorFor(ids.get(ids.size() - 1), lastTime);
+                            break;
+                        }
+                        ids.add(rs.getLong("id"));
+                        lastTime = rs.getString("dateTime");
+                    }
+                }
+            }
+        } while (after != null);
+        return ids;
+    }
+}
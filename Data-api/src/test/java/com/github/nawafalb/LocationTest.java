@@ -0,0 +1,56 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationTest {
+
+    private static String error(String param) {
+        return assertThrows(IllegalArgumentException.class, () -> Location.parseList(param, 3)).getMessage();
+    }
+
+    @Test
+    void parsesPairsAndSkipsBlankEntries() {
+        assertEquals(List.of(new Location(39.9526, -75.1652), new Location(-33.9, 151.2)),
+                Location.parseList(" 39.9526 , -75.1652;;-33.9,151.2;", 3));
+    }
+
+    @Test
+    void rejectsNonFiniteCoordinates() {
+        assertEquals("expected lat,lon but got 'NaN,NaN'", error("NaN,NaN"));
+        assertEquals("expected lat,lon but got '10,Infinity'", error("10,Infinity"));
+        assertEquals("expected lat,lon but got '-Infinity,0'", error("-Infinity,0"));
+    }
+
+    @Test
+    void rejectsMalformedAndOutOfRange() {
+        assertEquals("expected lat,lon but got '1,2,3'", error("1,2,3"));
+        assertEquals("expected lat,lon but got 'a,b'", error("a,b"));
+        assertEquals("location out of range: 91,0", error("91,0"));
+        assertEquals("location out of range: 0,-180.5", error("0,-180.5"));
+        assertEquals("at most 3 locations per request", error("1,1;2,2;3,3;4,4"));
+        assertEquals("locations is required (lat,lon;lat,lon;...)", error(" ; "));
+        assertEquals("locations is required (lat,lon;lat,lon;...)", error(null));
+    }
+
+    @Test
+    void fileRejectsNonFiniteCoordinates() throws IOException {
+        Path file = Files.createTempFile("locations", ".txt");
+        try {
+            Files.writeString(file, "# name\n1.5,2.5,Home\n\nNaN,0\n");
+            IOException e = assertThrows(IOException.class, () -> Location.load(file));
+            assertTrue(e.getMessage().endsWith(":4: expected lat,lon"), e.getMessage());
+
+            Files.writeString(file, "# name\n1.5,2.5,Home\n");
+            assertEquals(List.of(new Location(1.5, 2.5)), Location.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearestIndexTest {
+
+    private static Location random(Random random) {
+        // uniform on the sphere, so the poles get their share
+        double lat = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+        return new Location(lat, random.nextDouble() * 360 - 180);
+    }
+
+    // Compares distances rather than locations, so exact ties may come back in either order
+    private static void assertNearest(NearestIndex index, List<Location> all, double lat, double lon, int k) {
+        List<Double> expected = all.stream()
+                .map(l -> NearestIndex.haversineKm(lat, lon, l.latitude(), l.longitude()))
+                .sorted(Comparator.naturalOrder())
+                .limit(k)
+                .toList();
+        List<NearestIndex.Hit> hits = index.nearest(lat, lon, k);
+        assertEquals(expected.size(), hits.size(), "hits for " + lat + "," + lon);
+        for (int i = 0; i < hits.size(); i++) {
+            NearestIndex.Hit hit = hits.get(i);
+            assertTrue(all.contains(hit.location()), hit.location() + " was never added");
+            assertEquals(NearestIndex.haversineKm(lat, lon, hit.location().latitude(), hit.location().longitude()),
+                    hit.distanceKm(), 1e-9);
+            assertEquals(expected.get(i), hit.distanceKm(), 1e-6, "hit " + i + " for " + lat + "," + lon);
+        }
+    }
+
+    @Test
+    void resetMatchesBruteForce() {
+        Random random = new Random(3);
+        List<Location> all = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) all.add(random(random));
+        NearestIndex index = new NearestIndex();
+        index.reset(all);
+        assertEquals(2000, index.size());
+        for (int q = 0; q < 200; q++) {
+            Location l = random(random);
+            assertNearest(index, all, l.latitude(), l.longitude(), 1 + random.nextInt(20));
+        }
+    }
+
+    // One at a time, so queries see the pending list on its own, mixed with the tree, and just after each rebuild
+    @Test
+    void addMatchesBruteForceBeforeAndAfterEachRebuild() {
+        Random random = new Random(4);
+        List<Location> all = new ArrayList<>();
+        NearestIndex index = new NearestIndex();
+        for (int i = 0; i < 600; i++) {
+            Location l = random(random);
+            index.add(l.latitude(), l.longitude());
+            all.add(l);
+            assertEquals(all.size(), index.size());
+            Location q = random(random);
+            assertNearest(index, all, q.latitude(), q.longitude(), 5);
+        }
+    }
+
+    @Test
+    void pendingPointsAreFoundOnTopOfAResetTree() {
+        Random random = new Random(5);
+        List<Location> all = new ArrayList<>();
+        for (int i = 0; i < 400; i++) all.add(random(random));
+        NearestIndex index = new NearestIndex();
+        index.reset(all);
+        // sqrt(400) = 20 pending points go unindexed before the next rebuild
+        for (int i = 0; i < 19; i++) {
+            Location l = random(random);
+            index.add(l.latitude(), l.longitude());
+            all.add(l);
+            List<NearestIndex.Hit> own = index.nearest(l.latitude(), l.longitude(), 1);
+            assertEquals(l, own.get(0).location());
+            assertEquals(0, own.get(0).distanceKm(), 1e-9);
+            for (int q = 0; q < 10; q++) {
+                Location p = random(random);
+                assertNearest(index, all, p.latitude(), p.longitude(), 8);
+            }
+        }
+    }
+
+    @Test
+    void theAntimeridianIsNotAnEdge() {
+        NearestIndex index = new NearestIndex();
+        List<Location> all = List.of(new Location(0, 179.9), new Location(0, -179.9),
+                new Location(0, 170), new Location(0, -170), new Location(10, 180));
+        index.reset(all);
+        List<NearestIndex.Hit> hits = index.nearest(0, -179.99, 2);
+        assertEquals(new Location(0, -179.9), hits.get(0).location());
+        assertEquals(new Location(0, 179.9), hits.get(1).location());
+        assertEquals(12.2, hits.get(1).distanceKm(), 0.1);
+        assertNearest(index, all, 0, 180, 5);
+        assertNearest(index, all, 5, -180, 5);
+    }
+
+    @Test
+    void longitudesMeetAtThePoles() {
+        NearestIndex index = new NearestIndex();
+        List<Location> all = List.of(new Location(89.9, 0), new Location(89.9, 90), new Location(89.9, -179),
+                new Location(89, 45), new Location(-89.95, 120), new Location(-90, 0));
+        index.reset(all);
+        // every longitude at 89.9 is the same distance from the pole
+        List<NearestIndex.Hit> hits = index.nearest(90, 0, 3);
+        for (NearestIndex.Hit hit : hits) assertEquals(11.1, hit.distanceKm(), 0.1);
+        assertEquals(new Location(-90, 0), index.nearest(-89.99, -60, 1).get(0).location());
+        assertNearest(index, all, 90, 123, 6);
+        assertNearest(index, all, -90, 0, 6);
+    }
+
+    @Test
+    void kPastTheSizeReturnsEverything() {
+        NearestIndex index = new NearestIndex();
+        assertEquals(List.of(), index.nearest(0, 0, 5));
+        List<Location> all = List.of(new Location(1, 1), new Location(2, 2), new Location(3, 3));
+        index.reset(all);
+        assertEquals(3, index.nearest(0, 0, 10).size());
+        assertNearest(index, all, 0, 0, 10);
+        assertEquals(List.of(), index.nearest(0, 0, 0));
+    }
+
+    @Test
+    void addingAKnownLocationIsANoOp() {
+        NearestIndex index = new NearestIndex();
+        index.reset(List.of(new Location(1, 1), new Location(1, 1), new Location(2, 2)));
+        assertEquals(2, index.size());
+        index.add(1, 1);          // already in the tree
+        index.add(40, -70);
+        index.add(40, -70);       // already pending
+        assertEquals(3, index.size());
+        assertEquals(1, index.nearest(40, -70, 3).stream()
+                .filter(h -> h.location().equals(new Location(40, -70))).count());
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.nawafalb.uiapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.time.Instant;
+
+/**
+ * Turns a class-api /combined response into the dashboard the UI shows:
+ * an overall alert level plus an air-quality card and a UV card, each with
+ * a category, advice and colour. A multi-location /combined response
+ * ({"locations": [...]}) becomes one such dashboard per location. When
+ * class-api answers degraded (one source down), the card it has is shown
+ * and its "degraded" and "missing" fields are passed on.
+ */
+public final class DashboardAssembler {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private DashboardAssembler() { }
+
+    /** The dashboard for {@code combined}, or null if it has neither a numeric aqi nor uv. */
+    public static ObjectNode assemble(JsonNode combined) {
+        if (combined.has("locations")) return assembleGrid(combined.get("locations"));
+
+        ObjectNode root = mapper.createObjectNode();
+        root.put("timestamp", Instant.now().toString());
+        return cards(root, combined) ? root : null;
+    }
+
+    // One entry per location, in the order asked for; a location with no reading at all gets an error instead of cards
+    private static ObjectNode assembleGrid(JsonNode locations) {
+        if (!locations.isArray()) return null;
+        ObjectNode root = mapper.createObjectNode();
+        root.put("timestamp", Instant.now().toString());
+        ArrayNode grid = root.putArray("locations");
+        for (JsonNode loc : locations) {
+            ObjectNode entry = grid.addObject();
+            entry.set("latitude", loc.get("latitude"));
+            entry.set("longitude", loc.get("longitude"));
+            if (!cards(entry, loc)) {
+                entry.put("error", "no reading");
+                if (loc.has("missing")) entry.set("missing", loc.get("missing"));
+            }
+        }
+        return root;
+    }
+
+    // Adds summary, alertLevel and a card per numeric reading to {@code root}; false if it has neither
+    private static boolean cards(ObjectNode root, JsonNode combined) {
+        double aqi = safeDouble(combined, "aqi", Double.NaN);
+        double uv  = safeDouble(combined, "uv",  Double.NaN);
+        if (Double.isNaN(aqi) && Double.isNaN(uv)) return false;
+        String summary = combined.hasNonNull("summary") ? combined.get("summary").asText() : "N/A";
+
+        root.put("summary", summary);
+        root.put("alertLevel", overallAlert(aqi, uv));
+
+        ObjectNode cards = root.putObject("cards");
+        if (!Double.isNaN(aqi)) {
+            String aqiCat = aqiCategory(aqi);
+            ObjectNode air = cards.putObject("airQuality");
+            air.put("aqi", round1(aqi));
+            air.put("category", aqiCat);
+            air.put("advice", aqiAdvice(aqi));
+            air.put("color", aqiColor(aqiCat));
+        }
+
+        if (!Double.isNaN(uv)) {
+            String uvRisk = uvRisk(uv);
+            ObjectNode uvCard = cards.putObject("uv");
+            uvCard.put("uvIndex", round1(uv));
+            uvCard.put("risk", uvRisk);
+            uvCard.put("advice", uvAdvice(uv));
+            uvCard.put("color", uvColor(uvRisk));
+        }
+
+        if (Double.isNaN(aqi) || Double.isNaN(uv)) {
+            root.put("degraded", true);
+            if (combined.has("missing")) root.set("missing", combined.get("missing"));
+        }
+        return true;
+    }
+
+    // Worst of the two readings; a missing (NaN) one doesn't count
+    static String overallAlert(double aqi, double uv) {
+        int aqiLevel = Double.isNaN(aqi) ? 0 : aqi <= 50 ? 0 : aqi <= 100 ? 1 : aqi <= 200 ? 2 : 3;
+        int uvLevel  = Double.isNaN(uv) ? 0 : uv < 3 ? 0 : uv < 6 ? 1 : uv < 11 ? 2 : 3;
+        switch (Math.max(aqiLevel, uvLevel)) {
+            case 0: return "Low";
+            case 1: return "Moderate";
+            case 2: return "High";
+            default: return "Severe";
+        }
+    }
+
+    private static double safeDouble(JsonNode node, String field, double fallback) {
+        return node.has(field) && node.get(field).isNumber() ? node.get(field).asDouble() : fallback;
+    }
+
+    private static double round1(double x) { return Math.round(x * 10.0) / 10.0; }
+    private static String aqiCategory(double aqi) {
+        if (aqi <= 50)  return "Good";
+        if (aqi <= 100) return "Moderate";
+        if (aqi <= 150) return "Unhealthy for Sensitive Groups";
+        if (aqi <= 200) return "Unhealthy";
+        if (aqi <= 300) return "Very Unhealthy";
+        return "Hazardous";
+    }
+    private static String aqiAdvice(double aqi) {
+        switch (aqiCategory(aqi)) {
+            case "Good": return "Enjoy outdoor activities.";
+            case "Moderate": return "Sensitive groups: limit prolonged outdoor exertion.";
+            case "Unhealthy for Sensitive Groups": return "Sensitive groups: reduce outdoor exertion.";
+            case "Unhealthy": return "Everyone: reduce prolonged or heavy outdoor exertion.";
+            case "Very Unhealthy": return "Avoid outdoor exertion; consider a mask/air purifier.";
+            default: return "Stay indoors with clean air; follow local guidance.";
+        }
+    }
+    private static String uvRisk(double uv) {
+        if (uv < 3)   return "Low";
+        if (uv < 6)   return "Moderate";
+        if (uv < 8)   return "High";
+        if (uv < 11)  return "Very High";
+        return "Extreme";
+    }
+    private static String uvAdvice(double uv) {
+        switch (uvRisk(uv)) {
+            case "Low": return "Minimal protection needed.";
+            case "Moderate": return "Wear sunglasses and SPF 30+.";
+            case "High": return "Reduce time in sun; SPF 30+, hat, sunglasses.";
+            case "Very High": return "Avoid midday sun; protective clothing; SPF 30+.";
+            default: return "Avoid exposure; seek shade; SPF 50+.";
+        }
+    }
+    private static String aqiColor(String cat) {
+        switch (cat) {
+            case "Good": return "green";
+            case "Moderate": return "yellow";
+            case "Unhealthy for Sensitive Groups": return "orange";
+            case "Unhealthy": return "red";
+            case "Very Unhealthy": return "purple";
+            default: return "maroon";
+        }
+    }
+    private static String uvColor(String risk) {
+        switch (risk) {
+            case "Low": return "green";
+            case "Moderate": return "yellow";
+            case "High": return "orange";
+            case "Very High": return "red";
+            default: return "purple";
+        }
+    }
+}
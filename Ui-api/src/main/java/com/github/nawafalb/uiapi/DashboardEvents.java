@@ -0,0 +1,210 @@
+package com.github.nawafalb.uiapi;
+
+import com.github.nawafalb.Metrics;
+import com.github.nawafalb.ServerExecutors;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GET /events: the default dashboard as a Server-Sent Events stream. Each new
+ * dashboard is built once and the same bytes go to every subscriber.
+ *
+ * The handler returns straight after the headers; each subscriber then has a
+ * virtual thread that sleeps until there is something to send, so thousands of
+ * idle streams cost a few KB each rather than a platform thread. A subscriber
+ * holds at most one pending event: a newer dashboard replaces one it hasn't
+ * been sent yet, so a slow client gets the latest state rather than a growing
+ * queue. One that can't take a write within SSE_WRITE_TIMEOUT_MS is dropped.
+ *
+ * Settings:
+ *   SSE_MAX_SUBSCRIBERS   default 10000; more get a 503
+ *   SSE_HEARTBEAT_MS      comment line sent on idle streams, default 15000
+ *   SSE_WRITE_TIMEOUT_MS  default 10000
+ */
+final class DashboardEvents {
+
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RETRY = "retry: 5000\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int maxSubscribers;
+    private final long heartbeatMillis;
+    private final long writeTimeoutNanos;
+    private final Runnable onSubscribe;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // reserved before the headers go out, so concurrent connects can't overshoot maxSubscribers
+    private final AtomicInteger slots = new AtomicInteger();
+    private final ScheduledExecutorService reaper;
+    private volatile Event latest;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder slowDrops = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // One encoded event; id is the dashboard ETag so a reconnecting client isn't sent what it has
+    private record Event(String id, byte[] bytes) { }
+
+    DashboardEvents(int maxSubscribers, long heartbeatMillis, long writeTimeoutMillis, Runnable onSubscribe) {
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatMillis = heartbeatMillis;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.onSubscribe = onSubscribe;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::dropSlow, 1, 1, TimeUnit.SECONDS);
+
+        Metrics.gauge("sse_subscribers", "Open /events streams", subscribers::size, "service", "ui-api");
+        Metrics.counter("sse_events_published_total", "Dashboards pushed to /events", published::sum, "service", "ui-api");
+        Metrics.counter("sse_events_coalesced_total", "Events replaced by a newer one before a slow subscriber got them",
+                coalesced::sum, "service", "ui-api");
+        Metrics.counter("sse_slow_disconnects_total", "Subscribers dropped for not taking a write in time",
+                slowDrops::sum, "service", "ui-api");
+    }
+
+    static DashboardEvents fromEnv(Runnable onSubscribe) {
+        return new DashboardEvents(
+                ServerExecutors.intEnv("SSE_MAX_SUBSCRIBERS", 10000),
+                positiveEnv("SSE_HEARTBEAT_MS", 15000),
+                positiveEnv("SSE_WRITE_TIMEOUT_MS", 10000),
+                onSubscribe);
+    }
+
+    // A zero heartbeat would spin the subscriber threads, and a zero timeout would drop every write
+    private static int positiveEnv(String name, int fallback) {
+        int v = ServerExecutors.intEnv(name, fallback);
+        if (v > 0) return v;
+        System.err.println("Ignoring invalid " + name + "=" + v);
+        return fallback;
+    }
+
+    /** Sends {@code snapshot} to every subscriber, and to later ones when they connect. */
+    void publish(DashboardSnapshot.Snapshot snapshot) {
+        String id = snapshot.etag().replace("\"", "");
+        byte[] data = snapshot.body().identity;
+        byte[] head = ("id: " + id + "\nevent: dashboard\ndata: ").getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[head.length + data.length + 2];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(data, 0, bytes, head.length, data.length);
+        bytes[bytes.length - 2] = '\n';
+        bytes[bytes.length - 1] = '\n';
+
+        Event e = new Event(id, bytes);
+        latest = e;
+        published.increment();
+        for (Subscriber s : subscribers) s.offer(e);
+    }
+
+    void handle(HttpExchange ex) throws IOException {
+        if (slots.incrementAndGet() > maxSubscribers) {
+            slots.decrementAndGet();
+            rejected.increment();
+            ex.getResponseHeaders().set("Retry-After", "5");
+            ex.sendResponseHeaders(503, -1);
+            ex.close();
+            return;
+        }
+        // from here the slot is the subscriber's, and its run() gives it back
+        try {
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+            ex.getResponseHeaders().set("Cache-Control", "no-store");
+            ex.getResponseHeaders().set("X-Accel-Buffering", "no");
+            ex.sendResponseHeaders(200, 0);
+        } catch (IOException | RuntimeException e) {
+            slots.decrementAndGet();
+            throw e;
+        }
+
+        Subscriber s = new Subscriber(ex);
+        subscribers.add(s);
+        Event current = latest;
+        if (current != null && !current.id().equals(ex.getRequestHeaders().getFirst("Last-Event-ID"))) {
+            s.offer(current);
+        }
+        s.thread = Thread.ofVirtual().name("sse-subscriber").start(s::run);
+        onSubscribe.run();
+    }
+
+    boolean hasEvent() { return latest != null; }
+
+    // Interrupting the writer closes the connection under it, which ends a blocked write
+    private void dropSlow() {
+        long now = System.nanoTime();
+        for (Subscriber s : subscribers) {
+            long started = s.writeStarted;
+            if (started != 0 && now - started > writeTimeoutNanos) {
+                slowDrops.increment();
+                subscribers.remove(s);
+                s.thread.interrupt();
+            }
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("subscribers", subscribers.size());
+        m.put("published", published.sum());
+        m.put("coalesced", coalesced.sum());
+        m.put("slowDisconnects", slowDrops.sum());
+        m.put("rejected", rejected.sum());
+        return m;
+    }
+
+    private final class Subscriber {
+        private final HttpExchange ex;
+        private final AtomicReference<Event> pending = new AtomicReference<>();
+        private final Semaphore wake = new Semaphore(0);
+        volatile Thread thread;
+        volatile long writeStarted;  // nanoTime of the write in progress, 0 when not writing
+
+        Subscriber(HttpExchange ex) {
+            this.ex = ex;
+        }
+
+        void offer(Event e) {
+            if (pending.getAndSet(e) != null) coalesced.increment();
+            wake.release();
+        }
+
+        void run() {
+            try (OutputStream out = ex.getResponseBody()) {
+                write(out, RETRY);
+                while (!Thread.currentThread().isInterrupted()) {
+                    wake.tryAcquire(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    wake.drainPermits();
+                    Event e = pending.getAndSet(null);
+                    write(out, e != null ? e.bytes() : PING);
+                }
+            } catch (IOException | InterruptedException e) {
+                // client went away, or it was too slow and got dropped
+            } finally {
+                subscribers.remove(this);
+                slots.decrementAndGet();
+                ex.close();
+            }
+        }
+
+        private void write(OutputStream out, byte[] bytes) throws IOException {
+            writeStarted = System.nanoTime();
+            out.write(bytes);
+            out.flush();
+            writeStarted = 0;
+        }
+    }
+}
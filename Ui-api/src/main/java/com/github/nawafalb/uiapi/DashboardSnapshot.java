@@ -0,0 +1,188 @@
+package com.github.nawafalb.uiapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.nawafalb.Compression;
+import com.github.nawafalb.ETags;
+import com.github.nawafalb.Metrics;
+import com.github.nawafalb.ServerExecutors;
+
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * DASHBOARD_MODE=snapshot: the default dashboard (/dashboard with no query)
+ * is built in the background and served from memory, so a request makes no
+ * call to class-api and its latency doesn't depend on the chain behind it.
+ * In either mode the same builder produces the dashboards pushed to /events.
+ *
+ * In snapshot mode a refresher revalidates against class-api every
+ * DASHBOARD_REFRESH_MS; {@link #refreshNow()}, called on a change
+ * notification, does it straight away. The cards are only rebuilt when the
+ * class-api ETag moves, and each rebuild is handed to the listeners.
+ * A snapshot older than DASHBOARD_MAX_STALE_MS (time since class-api last
+ * confirmed it) isn't served; requests then take the live path, so no
+ * response is ever older than that bound.
+ *
+ * Settings:
+ *   DASHBOARD_MODE          live (default) or snapshot
+ *   DASHBOARD_REFRESH_MS    default 2000
+ *   DASHBOARD_MAX_STALE_MS  default 30000
+ */
+final class DashboardSnapshot {
+
+    static final String PATH = "/combined";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /** A built dashboard; checkedNanos is when class-api last said it was current. */
+    record Snapshot(String classEtag, String etag, Compression.Variants body, long builtNanos, long checkedNanos) {
+        Snapshot checked(long now) {
+            return new Snapshot(classEtag, etag, body, builtNanos, now);
+        }
+    }
+
+    private final UpstreamClient upstream;
+    private final boolean serving;
+    private final long refreshMillis;
+    private final long maxStaleMillis;
+    private final ScheduledExecutorService refresher;
+    private volatile Snapshot current;
+    private volatile String lastError;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    DashboardSnapshot(UpstreamClient upstream, boolean serving, long refreshMillis, long maxStaleMillis) {
+        this.upstream = upstream;
+        this.serving = serving;
+        this.refreshMillis = refreshMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dashboard-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        Metrics.gauge("dashboard_snapshot_age_seconds", "Time since class-api last confirmed the dashboard snapshot",
+                () -> { Snapshot s = current; return s == null ? -1 : ageMillis(s) / 1000.0; }, "service", "ui-api");
+        Metrics.counter("dashboard_snapshot_rebuilds_total", "Snapshots rebuilt because class-api data changed",
+                rebuilds::sum, "service", "ui-api");
+        Metrics.counter("dashboard_snapshot_failures_total", "Background refreshes that failed",
+                failures::sum, "service", "ui-api");
+    }
+
+    static DashboardSnapshot fromEnv(UpstreamClient upstream) {
+        String mode = System.getenv("DASHBOARD_MODE");
+        return new DashboardSnapshot(upstream,
+                mode != null && mode.trim().equalsIgnoreCase("snapshot"),
+                ServerExecutors.intEnv("DASHBOARD_REFRESH_MS", 2000),
+                ServerExecutors.intEnv("DASHBOARD_MAX_STALE_MS", 30000));
+    }
+
+    /** Whether /dashboard is served from the snapshot (DASHBOARD_MODE=snapshot). */
+    boolean serving() { return serving; }
+
+    /** Starts the periodic refresh in snapshot mode; in live mode snapshots are only built on demand. */
+    void start() {
+        if (serving) refresher.scheduleWithFixedDelay(this::refresh, 0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Called on the refresher thread with every rebuilt snapshot. */
+    void onRebuild(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /** The last snapshot built, however old; null before the first. */
+    Snapshot latest() { return current; }
+
+    /** Revalidate now instead of at the next tick, e.g. because the data changed. */
+    void refreshNow() {
+        refresher.execute(this::refresh);
+    }
+
+    /** The snapshot if it is within the staleness bound, else null. */
+    Snapshot fresh() {
+        Snapshot s = current;
+        return s != null && ageMillis(s) <= maxStaleMillis ? s : null;
+    }
+
+    long ageMillis(Snapshot s) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s.checkedNanos());
+    }
+
+    long maxStaleMillis() { return maxStaleMillis; }
+
+    // Runs on the refresher thread only
+    private void refresh() {
+        Snapshot last = current;
+        try {
+            HttpResponse<String> resp = upstream.get(PATH, last == null ? null : last.classEtag());
+            long now = System.nanoTime();
+            if (resp.statusCode() == 304 && last != null) {
+                current = last.checked(now);
+                unchanged.increment();
+                lastError = null;
+                return;
+            }
+            if (resp.statusCode() != 200) {
+                fail("class-api returned status " + resp.statusCode());
+                return;
+            }
+            if (resp.headers().firstValue("Warning").isPresent()) {
+                // built from an old Data API copy; keep the snapshot's age honest
+                fail("class-api answered stale");
+                return;
+            }
+            ObjectNode root = DashboardAssembler.assemble(mapper.readTree(resp.body()));
+            if (root == null) {
+                fail("class-api JSON missing expected fields (aqi/uv)");
+                return;
+            }
+
+            byte[] json = mapper.writeValueAsBytes(root);
+            String classEtag = resp.headers().firstValue("ETag").orElse(null);
+            String etag = ETags.of("ui", classEtag != null ? classEtag : new String(json, StandardCharsets.UTF_8));
+            Snapshot built = new Snapshot(classEtag, etag, new Compression.Variants(json), now, now);
+            current = built;
+            rebuilds.increment();
+            lastError = null;
+            for (Consumer<Snapshot> l : listeners) l.accept(built);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            fail(e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private void fail(String reason) {
+        failures.increment();
+        if (!reason.equals(lastError)) System.err.println("Dashboard refresh failed: " + reason);
+        lastError = reason;
+    }
+
+    Map<String, Object> stats() {
+        Snapshot s = current;
+        Map<String, Object> m = new HashMap<>();
+        m.put("mode", serving ? "snapshot" : "live");
+        m.put("refreshMs", refreshMillis);
+        m.put("maxStaleMs", maxStaleMillis);
+        m.put("ageMs", s == null ? null : ageMillis(s));
+        m.put("rebuilds", rebuilds.sum());
+        m.put("unchanged", unchanged.sum());
+        m.put("failures", failures.sum());
+        m.put("lastError", lastError);
+        return m;
+    }
+}
@@ -1,6 +1,11 @@
 
 package com.github.nawafalb.uiapi;
 
+import com.github.nawafalb.ChangeFeed;
+import com.github.nawafalb.Compression;
+import com.github.nawafalb.ETags;
+import com.github.nawafalb.Metrics;
+import com.github.nawafalb.ServerExecutors;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -11,34 +16,88 @@ import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.URI;
 import java.net.http.*;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UiApiServer {
 
-    private static final String CLASS_API_BASE_URL = "http://localhost:8081";
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ServerExecutors.RequestExecutor executor = ServerExecutors.fromEnv("ui-api");
+    private static UpstreamClient upstream;
+    private static DashboardSnapshot snapshots;
+    private static DashboardEvents events;
+    private static ChangeFeed changes;
+
+    // Last dashboard built per class-api path, keyed to the class-api ETag it came from;
+    // the body keeps its compressed forms so an unchanged dashboard is compressed once
+    record Rendered(String classEtag, String etag, Compression.Variants body) { }
+    private static final int MAX_RENDERED = 256;
+    private static final Map<String, Rendered> dashboards = new ConcurrentHashMap<>();
+
+    private static final Metrics.Counter STALE = Metrics.counter("stale_responses_total",
+            "Answers built from the last good upstream response because the upstream failed", "service", "ui-api");
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    private static final String START_NANOS = "startNanos";
+    private static final String UPSTREAM_TIMING = "upstreamTiming";
 
     public static void main(String[] args) throws Exception {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8082), 0);
-        System.out.println("UI API (JDK HttpServer) on http://localhost:8082");
+        start(8082, UpstreamClient.fromEnv());
+    }
+
+    /** Starts serving on {@code port} (0 picks a free one), calling class-api through {@code client}. */
+    public static HttpServer start(int port, UpstreamClient client) throws IOException {
+        upstream = client;
+        snapshots = DashboardSnapshot.fromEnv(client);
+
+        // class-api's change feed triggers a rebuild, and each rebuild is pushed to /events.
+        // In live mode the feed only runs once someone subscribes.
+        changes = new ChangeFeed(client.baseUrl() + "/changes", 25_000);
+        changes.signal().onChange(v -> snapshots.refreshNow());
+        events = DashboardEvents.fromEnv(() -> {
+            changes.start();
+            if (!events.hasEvent()) snapshots.refreshNow();
+        });
+        snapshots.onRebuild(events::publish);
+        if (snapshots.serving()) {
+            snapshots.start();
+            changes.start();
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
         server.createContext("/health", UiApiServer::healthHandler);
-        server.createContext("/dashboard", UiApiServer::dashboardHandler);
+        server.createContext("/dashboard", Metrics.instrument("ui-api", "/dashboard", UiApiServer::dashboardHandler));
+        server.createContext("/events", ex -> {
+            withCors(ex);
+            events.handle(ex);
+        });
+        server.createContext("/metrics", Metrics::handle);
         // very simple CORS preflight
         server.createContext("/", UiApiServer::corsHandler);
 
-        server.setExecutor(null);
+        server.setExecutor(executor.executor());
         server.start();
+        System.out.println("UI API (JDK HttpServer) on http://localhost:" + server.getAddress().getPort()
+                + " (" + executor + ", class-api=" + upstream.baseUrl()
+                + ", dashboard=" + (snapshots.serving() ? "snapshot" : "live") + ")");
+        return server;
     }
 
     private static void healthHandler(HttpExchange ex) throws IOException {
         withCors(ex);
         if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
-            sendJson(ex, 200, "{\"status\":\"ok\"}");
+            ObjectNode n = mapper.createObjectNode();
+            n.put("status", "ok");
+            n.set("executor", mapper.valueToTree(executor.stats()));
+            n.set("upstream", mapper.valueToTree(upstream.stats()));
+            n.set("snapshot", mapper.valueToTree(snapshots.stats()));
+            n.set("events", mapper.valueToTree(events.stats()));
+            n.set("changes", mapper.valueToTree(changes.stats()));
+            sendJson(ex, 200, mapper.writeValueAsString(n));
         } else if ("OPTIONS".equalsIgnoreCase(ex.getRequestMethod())) {
             sendEmpty(ex, 204);
         } else {
@@ -47,6 +106,7 @@ public class UiApiServer {
     }
 
     private static void dashboardHandler(HttpExchange ex) throws IOException {
+        ex.setAttribute(START_NANOS, System.nanoTime());
         withCors(ex);
         if ("OPTIONS".equalsIgnoreCase(ex.getRequestMethod())) {
             sendEmpty(ex, 204);
@@ -57,14 +117,40 @@ public class UiApiServer {
             return;
         }
 
+        // Snapshot mode: the default dashboard comes from memory, with its age
+        if (snapshots.serving() && ex.getRequestURI().getRawQuery() == null) {
+            DashboardSnapshot.Snapshot snap = snapshots.fresh();
+            if (snap != null) {
+                long age = snapshots.ageMillis(snap);
+                ex.getResponseHeaders().set("Age", String.valueOf(age / 1000));
+                ex.getResponseHeaders().set("X-Snapshot-Age-Ms", String.valueOf(age));
+                ex.getResponseHeaders().set("X-Snapshot-Max-Stale-Ms", String.valueOf(snapshots.maxStaleMillis()));
+                sendJson(ex, 200, snap.body(), snap.etag());
+                return;
+            }
+        }
+
         String qs = Optional.ofNullable(ex.getRequestURI().getQuery()).map(q -> "?" + q).orElse("");
-        String combinedUrl = CLASS_API_BASE_URL + "/combined" + qs;
+        String combinedUrl = "/combined" + qs;
 
-        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
-        HttpRequest req = HttpRequest.newBuilder(URI.create(combinedUrl)).timeout(Duration.ofSeconds(10)).GET().build();
+        Rendered last = dashboards.get(combinedUrl);
 
         try {
-            HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> resp = upstream.get(combinedUrl, last == null ? null : last.classEtag());
+            resp.headers().firstValue("Server-Timing").ifPresent(t -> ex.setAttribute(UPSTREAM_TIMING, t));
+            // class-api answered from an old Data API copy; the dashboard is just as old
+            resp.headers().firstValue("Warning").ifPresent(w -> ex.getResponseHeaders().set("Warning", w));
+            if (resp.statusCode() == 304 && last != null) {
+                // class-api data unchanged: reuse the cards we built last time
+                sendJson(ex, 200, last.body(), last.etag());
+                return;
+            }
+            if (resp.statusCode() == 400) {
+                // a bad locations list; class-api's message says what is wrong with it
+                sendJson(ex, 400, resp.body());
+                return;
+            }
+            if (resp.statusCode() >= 500 && sendStale(ex, last)) return;
             if (resp.statusCode() >= 400) {
                 sendJson(ex, 502, jsonError("class-api returned status " + resp.statusCode()));
                 return;
@@ -78,48 +164,50 @@ public class UiApiServer {
                 return;
             }
 
-            double aqi = safeDouble(body, "aqi", Double.NaN);
-            double uv  = safeDouble(body, "uv",  Double.NaN);
-            String summary = body.hasNonNull("summary") ? body.get("summary").asText() : "N/A";
-            if (Double.isNaN(aqi) || Double.isNaN(uv)) {
+            ObjectNode root = DashboardAssembler.assemble(body);
+            if (root == null) {
                 sendJson(ex, 502, jsonError("class-api JSON missing expected fields (aqi/uv)"));
                 return;
             }
 
-            ObjectNode root = mapper.createObjectNode();
-            root.put("timestamp", Instant.now().toString());
-            root.put("summary", summary);
-
-            String aqiCat = aqiCategory(aqi);
-            String uvRisk = uvRisk(uv);
-            root.put("alertLevel", overallAlert(aqi, uv));
-
-            ObjectNode cards = root.putObject("cards");
-            ObjectNode air = cards.putObject("airQuality");
-            air.put("aqi", round1(aqi));
-            air.put("category", aqiCat);
-            air.put("advice", aqiAdvice(aqi));
-            air.put("color", aqiColor(aqiCat));
-
-            ObjectNode uvCard = cards.putObject("uv");
-            uvCard.put("uvIndex", round1(uv));
-            uvCard.put("risk", uvRisk);
-            uvCard.put("advice", uvAdvice(uv));
-            uvCard.put("color", uvColor(uvRisk));
-
-            sendJson(ex, 200, mapper.writeValueAsString(root));
+            Compression.Variants json = new Compression.Variants(mapper.writeValueAsBytes(root));
+            String classEtag = resp.headers().firstValue("ETag").orElse(null);
+            String etag = null;
+            if (classEtag != null) {
+                etag = ETags.of("ui", classEtag);
+                if (dashboards.size() >= MAX_RENDERED) dashboards.clear();
+                dashboards.put(combinedUrl, new Rendered(classEtag, etag, json));
+            }
+            sendJson(ex, 200, json, etag);
 
         } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
             sendJson(ex, 500, jsonError("interrupted contacting class-api"));
         } catch (IOException ioe) {
+            if (sendStale(ex, last)) return;
             sendJson(ex, 500, jsonError("failed contacting class-api: " + ioe.getMessage()));
         }
     }
 
-    private static JsonNode overallAlert(double aqi, double uv) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'overallAlert'");
+    // class-api failed or its breaker is open: the last dashboard built for this URL, or the
+    // last snapshot for the default one, marked stale; false when there is none to send
+    private static boolean sendStale(HttpExchange ex, Rendered last) throws IOException {
+        Compression.Variants body;
+        String etag;
+        DashboardSnapshot.Snapshot snap = ex.getRequestURI().getRawQuery() == null ? snapshots.latest() : null;
+        if (last != null) {
+            body = last.body();
+            etag = last.etag();
+        } else if (snap != null) {
+            body = snap.body();
+            etag = snap.etag();
+        } else {
+            return false;
+        }
+        STALE.inc();
+        ex.getResponseHeaders().set("Warning", STALE_WARNING);
+        sendJson(ex, 200, body, etag);
+        return true;
     }
 
     private static void corsHandler(HttpExchange ex) throws IOException {
@@ -140,7 +228,28 @@ public class UiApiServer {
     }
 
     private static void sendJson(HttpExchange ex, int status, String body) throws IOException {
-        byte[] bytes = body.getBytes();
+        sendJson(ex, status, new Compression.Variants(body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    // With an ETag, answers 304 when the client already has this body, plain or compressed
+    private static void sendJson(HttpExchange ex, int status, Compression.Variants body, String etag) throws IOException {
+        serverTiming(ex);
+        Compression.Coding coding = status == 200
+                ? Compression.negotiate(ex.getRequestHeaders().getFirst("Accept-Encoding"), body.identity.length)
+                : Compression.Coding.IDENTITY;
+        Compression.headers(ex.getResponseHeaders(), coding);
+        if (etag != null) {
+            String tag = Compression.etag(etag, coding);
+            String ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+            if (ETags.matches(ifNoneMatch, etag) || ETags.matches(ifNoneMatch, tag)) {
+                ex.getResponseHeaders().remove("Content-Encoding");
+                ex.getResponseHeaders().set("ETag", ETags.matches(ifNoneMatch, tag) ? tag : etag);
+                sendEmpty(ex, 304);
+                return;
+            }
+            ex.getResponseHeaders().set("ETag", tag);
+        }
+        byte[] bytes = body.get(coding);
         ex.sendResponseHeaders(status, bytes.length);
         try (OutputStream os = ex.getResponseBody()) {
             os.write(bytes);
@@ -148,10 +257,20 @@ public class UiApiServer {
     }
 
     private static void sendEmpty(HttpExchange ex, int status) throws IOException {
+        serverTiming(ex);
         ex.sendResponseHeaders(status, -1);
         ex.close();
     }
 
+    // Server-Timing: "ui" is this handler, followed by whatever class-api reported for its part
+    private static void serverTiming(HttpExchange ex) {
+        Object start = ex.getAttribute(START_NANOS);
+        if (start == null || ex.getResponseHeaders().containsKey("Server-Timing")) return;
+        String timing = String.format(Locale.ROOT, "ui;dur=%.1f", (System.nanoTime() - (Long) start) / 1e6);
+        Object upstreamTiming = ex.getAttribute(UPSTREAM_TIMING);
+        ex.getResponseHeaders().set("Server-Timing", upstreamTiming == null ? timing : timing + ", " + upstreamTiming);
+    }
+
     private static String jsonError(String msg) {
         try {
             ObjectNode n = mapper.createObjectNode();
@@ -161,63 +280,4 @@ public class UiApiServer {
             return "{\"error\":\"" + msg.replace("\"", "'") + "\"}";
         }
     }
-
-    private static double safeDouble(JsonNode node, String field, double fallback) {
-        return node.has(field) && node.get(field).isNumber() ? node.get(field).asDouble() : fallback;
-    }
-
-    private static double round1(double x) { return Math.round(x * 10.0) / 10.0; }
-    private static String aqiCategory(double aqi) {
-        if (aqi <= 50)  return "Good";
-        if (aqi <= 100) return "Moderate";
-        if (aqi <= 150) return "Unhealthy for Sensitive Groups";
-        if (aqi <= 200) return "Unhealthy";
-        if (aqi <= 300) return "Very Unhealthy";
-        return "Hazardous";
-    }
-    private static String aqiAdvice(double aqi) {
-        switch (aqiCategory(aqi)) {
-            case "Good": return "Enjoy outdoor activities.";
-            case "Moderate": return "Sensitive groups: limit prolonged outdoor exertion.";
-            case "Unhealthy for Sensitive Groups": return "Sensitive groups: reduce outdoor exertion.";
-            case "Unhealthy": return "Everyone: reduce prolonged or heavy outdoor exertion.";
-            case "Very Unhealthy": return "Avoid outdoor exertion; consider a mask/air purifier.";
-            default: return "Stay indoors with clean air; follow local guidance.";
-        }
-    }
-    private static String uvRisk(double uv) {
-        if (uv < 3)   return "Low";
-        if (uv < 6)   return "Moderate";
-        if (uv < 8)   return "High";
-        if (uv < 11)  return "Very High";
-        return "Extreme";
-    }
-    private static String uvAdvice(double uv) {
-        switch (uvRisk(uv)) {
-            case "Low": return "Minimal protection needed.";
-            case "Moderate": return "Wear sunglasses and SPF 30+.";
-            case "High": return "Reduce time in sun; SPF 30+, hat, sunglasses.";
-            case "Very High": return "Avoid midday sun; protective clothing; SPF 30+.";
-            default: return "Avoid exposure; seek shade; SPF 50+.";
-        }
-    }
-    private static String aqiColor(String cat) {
-        switch (cat) {
-            case "Good": return "green";
-            case "Moderate": return "yellow";
-            case "Unhealthy for Sensitive Groups": return "orange";
-            case "Unhealthy": return "red";
-            case "Very Unhealthy": return "purple";
-            default: return "maroon";
-        }
-    }
-    private static String uvColor(String risk) {
-        switch (risk) {
-            case "Low": return "green";
-            case "Moderate": return "yellow";
-            case "High": return "orange";
-            case "Very High": return "red";
-            default: return "purple";
-        }
-    }
-}
\ No newline at end of file
+}
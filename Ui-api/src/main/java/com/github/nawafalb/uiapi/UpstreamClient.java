@@ -0,0 +1,146 @@
+package com.github.nawafalb.uiapi;
+
+import com.github.nawafalb.CircuitBreaker;
+import com.github.nawafalb.Hedger;
+import com.github.nawafalb.Metrics;
+import com.github.nawafalb.ServerExecutors;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one HttpClient ui-api uses to reach class-api. Sharing it keeps
+ * connections alive between dashboard requests (and lets the client
+ * upgrade to HTTP/2 where the upstream supports it) instead of paying for
+ * a new client, selector thread and TCP handshake on every request.
+ *
+ * Settings:
+ *   CLASS_API_BASE_URL           default http://localhost:8081
+ *   UPSTREAM_CONNECT_TIMEOUT_MS  default 5000
+ *   UPSTREAM_REQUEST_TIMEOUT_MS  default 10000
+ *   UPSTREAM_POOL_SIZE           max idle keep-alive connections, default 32
+ *   UPSTREAM_KEEPALIVE_S         idle keep-alive timeout, default 60
+ *
+ * Calls go through a {@link CircuitBreaker} and a {@link Hedger}
+ * (BREAKER_* and HEDGE_* settings); while the breaker is open
+ * {@link #get} fails at once with an IOException.
+ */
+public class UpstreamClient {
+
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final HttpClient client;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder http2 = new LongAdder();
+    private final LongAdder http1 = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private static final Metrics.Histogram CALLS = Metrics.histogram("upstream_request_duration_seconds",
+            "Time for calls to the next service", "service", "ui-api", "upstream", "class-api");
+    private static final Metrics.Counter FAILURES = Metrics.counter("upstream_failures_total",
+            "Calls to the next service that failed or timed out", "service", "ui-api", "upstream", "class-api");
+
+    private final CircuitBreaker breaker = CircuitBreaker.fromEnv("ui-api", "class-api");
+    private final Hedger hedger = Hedger.fromEnv("ui-api", "class-api");
+
+    public UpstreamClient(String baseUrl, Duration connectTimeout, Duration requestTimeout) {
+        this.baseUrl = baseUrl;
+        this.requestTimeout = requestTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    public static UpstreamClient fromEnv() {
+        String baseUrl = System.getenv("CLASS_API_BASE_URL");
+        return fromEnv(baseUrl == null || baseUrl.isBlank() ? "http://localhost:8081" : baseUrl.trim());
+    }
+
+    /** Timeouts and pool settings from env, against the given class-api. */
+    public static UpstreamClient fromEnv(String baseUrl) {
+        // The JDK client reads its pool settings once, when the first client is built
+        setDefault("jdk.httpclient.connectionPoolSize", ServerExecutors.intEnv("UPSTREAM_POOL_SIZE", 32));
+        setDefault("jdk.httpclient.keepalive.timeout", ServerExecutors.intEnv("UPSTREAM_KEEPALIVE_S", 60));
+
+        return new UpstreamClient(
+                baseUrl,
+                Duration.ofMillis(ServerExecutors.intEnv("UPSTREAM_CONNECT_TIMEOUT_MS", 5000)),
+                Duration.ofMillis(ServerExecutors.intEnv("UPSTREAM_REQUEST_TIMEOUT_MS", 10000)));
+    }
+
+    public String baseUrl() { return baseUrl; }
+
+    /** GET baseUrl + pathAndQuery, revalidating with ifNoneMatch when given. */
+    public HttpResponse<String> get(String pathAndQuery, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder rb = HttpRequest.newBuilder(URI.create(baseUrl + pathAndQuery))
+                .timeout(requestTimeout)
+                .GET();
+        if (ifNoneMatch != null) rb.header("If-None-Match", ifNoneMatch);
+        HttpRequest request = rb.build();
+
+        requests.increment();
+        if (!breaker.allow()) {
+            failures.increment();
+            throw new IOException("circuit open to class-api");
+        }
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<String>> call = hedger.call(
+                () -> client.sendAsync(request, HttpResponse.BodyHandlers.ofString()), r -> r.statusCode() < 500);
+        try {
+            HttpResponse<String> resp = call.get();
+            (resp.version() == HttpClient.Version.HTTP_2 ? http2 : http1).increment();
+            if (resp.statusCode() >= 500) breaker.failure(); else breaker.success();
+            return resp;
+        } catch (ExecutionException e) {
+            breaker.failure();
+            failures.increment();
+            FAILURES.inc();
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            // our own shutdown or cancellation, not class-api's fault
+            call.cancel(true);
+            breaker.release();
+            throw e;
+        } finally {
+            CALLS.recordSince(start);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // The JDK 21 client has no connection-level callbacks, so opened vs reused
+    // connections can't be counted here; requests per protocol version and the
+    // pool settings are what it does expose.
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("baseUrl", baseUrl);
+        m.put("requests", requests.sum());
+        m.put("failures", failures.sum());
+        m.put("inFlight", inFlight.get());
+        m.put("http2Responses", http2.sum());
+        m.put("http1Responses", http1.sum());
+        m.put("poolSize", System.getProperty("jdk.httpclient.connectionPoolSize"));
+        m.put("keepAliveSeconds", System.getProperty("jdk.httpclient.keepalive.timeout"));
+        m.put("breaker", breaker.stats());
+        m.put("hedge", hedger.stats());
+        return m;
+    }
+
+    private static void setDefault(String property, int value) {
+        if (System.getProperty(property) == null) System.setProperty(property, String.valueOf(value));
+    }
+}
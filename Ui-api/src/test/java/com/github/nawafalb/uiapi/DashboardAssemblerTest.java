@@ -0,0 +1,101 @@
+package com.github.nawafalb.uiapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DashboardAssemblerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static ObjectNode assemble(String combined) throws Exception {
+        return DashboardAssembler.assemble(mapper.readTree(combined));
+    }
+
+    @Test
+    void bothReadingsGiveBothCards() throws Exception {
+        ObjectNode d = assemble("{\"aqi\":42.0,\"uv\":7.5,\"summary\":\"Good Air & High UV\"}");
+        assertEquals("High", d.get("alertLevel").asText());
+        assertEquals("Good", d.at("/cards/airQuality/category").asText());
+        assertEquals("High", d.at("/cards/uv/risk").asText());
+        assertFalse(d.has("degraded"));
+    }
+
+    @Test
+    void degradedBodyKeepsTheCardItHas() throws Exception {
+        ObjectNode d = assemble("{\"aqi\":120.0,\"summary\":\"Poor Air & UV N/A\",\"degraded\":true,"
+                + "\"missing\":{\"uv\":\"timeout\"}}");
+        assertNotNull(d);
+        assertEquals("Unhealthy for Sensitive Groups", d.at("/cards/airQuality/category").asText());
+        assertFalse(d.get("cards").has("uv"));
+        assertEquals("High", d.get("alertLevel").asText());
+        assertTrue(d.get("degraded").asBoolean());
+        assertEquals("timeout", d.at("/missing/uv").asText());
+    }
+
+    @Test
+    void noReadingAtAllIsNull() throws Exception {
+        assertNull(assemble("{\"summary\":\"Air N/A & UV N/A\"}"));
+    }
+
+    @Test
+    void gridLocationsAreDegradedOneByOne() throws Exception {
+        ObjectNode d = assemble("{\"locations\":["
+                + "{\"latitude\":1.0,\"longitude\":2.0,\"uv\":2.0,\"degraded\":true,\"missing\":{\"airquality\":\"no reading\"}},"
+                + "{\"latitude\":3.0,\"longitude\":4.0,\"degraded\":true,"
+                + "\"missing\":{\"airquality\":\"no reading\",\"uv\":\"no reading\"}}]}");
+        JsonNode first = d.at("/locations/0");
+        assertEquals("Low", first.at("/cards/uv/risk").asText());
+        assertTrue(first.get("degraded").asBoolean());
+        JsonNode second = d.at("/locations/1");
+        assertEquals("no reading", second.get("error").asText());
+        assertEquals("no reading", second.at("/missing/uv").asText());
+    }
+
+    @Test
+    void missingReadingDoesNotRaiseTheAlert() {
+        assertEquals("Low", DashboardAssembler.overallAlert(Double.NaN, 1.0));
+        assertEquals("Severe", DashboardAssembler.overallAlert(250, Double.NaN));
+    }
+
+    // class-api answering 200 with one source down must still give a 200 dashboard, not a 502
+    @Test
+    void degradedClassApiAnswerIsServedAsA200Dashboard() throws Exception {
+        HttpServer classApi = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        byte[] combined = "{\"uv\":4.0,\"summary\":\"Air N/A & High UV\",\"degraded\":true,\"missing\":{\"airquality\":\"status 503\"}}"
+                .getBytes(StandardCharsets.UTF_8);
+        classApi.createContext("/combined", ex -> {
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, combined.length);
+            ex.getResponseBody().write(combined);
+            ex.close();
+        });
+        classApi.start();
+        HttpServer ui = UiApiServer.start(0,
+                UpstreamClient.fromEnv("http://127.0.0.1:" + classApi.getAddress().getPort()));
+        try {
+            HttpResponse<String> resp = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + ui.getAddress().getPort()
+                            + "/dashboard?locations=1,2")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, resp.statusCode());
+            JsonNode d = mapper.readTree(resp.body());
+            assertEquals("Moderate", d.at("/cards/uv/risk").asText());
+            assertEquals("status 503", d.at("/missing/airquality").asText());
+        } finally {
+            ui.stop(0);
+            classApi.stop(0);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.nawafalb.uiapi;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DashboardEventsTest {
+
+    // Many connects at once must not get more than SSE_MAX_SUBSCRIBERS streams, and a closed stream frees its slot
+    @Test
+    void concurrentConnectsStayWithinTheLimit() throws Exception {
+        DashboardEvents events = new DashboardEvents(2, 20, 10_000, () -> { });
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        server.setExecutor(pool);
+        server.createContext("/events", events::handle);
+        server.start();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/events")).build();
+        try {
+            List<CompletableFuture<HttpResponse<InputStream>>> connects = new ArrayList<>();
+            for (int i = 0; i < 64; i++) connects.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+            List<HttpResponse<InputStream>> open = new ArrayList<>();
+            int rejected = 0;
+            for (CompletableFuture<HttpResponse<InputStream>> c : connects) {
+                HttpResponse<InputStream> resp = c.get(5, TimeUnit.SECONDS);
+                if (resp.statusCode() == 200) {
+                    open.add(resp);
+                } else {
+                    assertEquals(503, resp.statusCode());
+                    resp.body().close();
+                    rejected++;
+                }
+            }
+            assertEquals(2, open.size());
+            assertEquals(62, rejected);
+            assertEquals(62L, events.stats().get("rejected"));
+
+            // the next heartbeat write fails on the closed stream and the slot comes back
+            open.get(0).body().close();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            HttpResponse<InputStream> again;
+            do {
+                Thread.sleep(20);
+                again = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (again.statusCode() != 200) again.body().close();
+            } while (again.statusCode() != 200 && System.nanoTime() < deadline);
+            assertEquals(200, again.statusCode());
+            again.body().close();
+            open.get(1).body().close();
+        } finally {
+            server.stop(0);
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.nawafalb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Generated SQLite databases for the benchmarks, one file per size (see
+ * {@link SampleData}). Files are reused across runs, so the numbers from
+ * one run to the next are comparable.
+ *
+ * Files go to BENCH_DATA_DIR (default: the temp dir). To make one ahead
+ * of time: BenchmarkData 100000
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() { }
+
+    /** JDBC URL of a database with {@code rows} rows per table, created if needed. */
+    public static synchronized String url(int rows) throws SQLException {
+        Path file = dir().resolve("readings-" + rows + ".db");
+        String url = "jdbc:sqlite:" + file;
+        if (Files.exists(file) && count(url) == rows) return url;
+
+        try {
+            Files.createDirectories(file.getParent());
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new SQLException("Cannot create " + file, e);
+        }
+        SampleData.create(file, rows);
+        return url;
+    }
+
+    private static Path dir() {
+        String d = System.getenv("BENCH_DATA_DIR");
+        return d != null && !d.isBlank() ? Path.of(d) : Path.of(System.getProperty("java.io.tmpdir"), "weather-bench");
+    }
+
+    private static int count(String url) {
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM user_DataUV")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        System.out.println(url(rows));
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.nawafalb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GetByIdHandler lookup (query a random id, serialize the row):
+ *  - pooled: borrow from a {@link ConnectionPool} and reuse its cached statement
+ *  - freshConnection: open a connection and prepare the statement every time,
+ *    as the handlers did before the pool
+ *
+ * Run with -t 4 to see the pool under contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"4"})
+    public int poolSize;
+
+    private static final String SQL = "SELECT * FROM " + ReadingStore.Metric.AQI.table + " WHERE id = ?";
+
+    private String url;
+    private ConnectionPool pool;
+
+    @State(Scope.Thread)
+    public static class Ids {
+        private final SplittableRandom rnd = new SplittableRandom(42);
+
+        long next(int rows) {
+            return 1 + rnd.nextInt(rows);
+        }
+    }
+
+    @Setup
+    public void setup() throws SQLException {
+        url = BenchmarkData.url(rows);
+        pool = new ConnectionPool(url, poolSize, 5000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public byte[] pooled(Ids ids) throws SQLException, IOException {
+        try (ConnectionPool.PooledConnection conn = pool.borrow()) {
+            PreparedStatement ps = conn.prepare(SQL);
+            ps.setLong(1, ids.next(rows));
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? ApiServer.rowJson(rs, ReadingStore.Metric.AQI.table) : null;
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] freshConnection(Ids ids) throws SQLException, IOException {
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement ps = conn.prepareStatement(SQL)) {
+            ps.setLong(1, ids.next(rows));
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? ApiServer.rowJson(rs, ReadingStore.Metric.AQI.table) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.nawafalb;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet-to-JSON for a list request of {@code limit} rows, four ways:
+ *  - hashMapRows: a HashMap per row, then the whole list through the mapper
+ *    (how GetAllHandler used to do it)
+ *  - streaming: ApiServer.writeJson with the generic column-by-column writer
+ *  - typedStreaming: ApiServer.writeJson with the typed ReadingRows writer
+ *    (what the list endpoints use for the reading tables)
+ *  - typedRecords: a ReadingRows record per row, then written one by one
+ *
+ * Each one includes running the query; the output is counted and dropped.
+ * Sizes: -p rows=100000 -p limit=1000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"100", "1000"})
+    public int limit;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Connection conn;
+    private PreparedStatement ps;
+    private ListQuery query;
+
+    @Setup
+    public void setup() throws SQLException {
+        conn = DriverManager.getConnection(BenchmarkData.url(rows));
+        query = ListQuery.parse(Map.of("limit", String.valueOf(limit)));
+        ps = conn.prepareStatement(query.sql(ReadingStore.Metric.AQI.table));
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        ps.close();
+        conn.close();
+    }
+
+    @Benchmark
+    public long hashMapRows() throws SQLException, IOException {
+        query.bind(ps);
+        List<Map<String, Object>> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            int columns = meta.getColumnCount();
+            while (rs.next()) {
+                Map<String, Object> row = new HashMap<>();
+                for (int i = 1; i <= columns; i++) {
+                    row.put(meta.getColumnName(i), rs.getObject(i));
+                }
+                out.add(row);
+            }
+        }
+        CountingStream sink = new CountingStream();
+        mapper.writeValue(sink, out);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long streaming() throws SQLException, IOException {
+        query.bind(ps);
+        CountingStream sink = new CountingStream();
+        try (ResultSet rs = ps.executeQuery();
+             JsonGenerator gen = mapper.createGenerator(sink)) {
+            // any table name that isn't a reading table gets the generic writer
+            ApiServer.writeJson(gen, rs, query, ApiServer.rowWriter(rs, "generic"));
+        }
+        return sink.count;
+    }
+
+    @Benchmark
+    public long typedStreaming() throws SQLException, IOException {
+        query.bind(ps);
+        CountingStream sink = new CountingStream();
+        try (ResultSet rs = ps.executeQuery();
+             JsonGenerator gen = mapper.createGenerator(sink)) {
+            ApiServer.writeJson(gen, rs, query, ApiServer.rowWriter(rs, ReadingStore.Metric.AQI.table));
+        }
+        return sink.count;
+    }
+
+    @Benchmark
+    public long typedRecords() throws SQLException, IOException {
+        query.bind(ps);
+        List<ReadingRows.Row> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            ReadingRows.Columns columns = ReadingRows.Columns.of(rs, ReadingStore.Metric.AQI);
+            while (rs.next()) {
+                out.add(ReadingRows.read(rs, columns));
+            }
+        }
+        CountingStream sink = new CountingStream();
+        try (JsonGenerator gen = mapper.createGenerator(sink)) {
+            gen.writeStartArray();
+            for (ReadingRows.Row row : out) {
+                ReadingRows.write(gen, row);
+            }
+            gen.writeEndArray();
+        }
+        return sink.count;
+    }
+
+    // Stands in for the socket: counts bytes so the work can't be optimised away
+    static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.nawafalb.uiapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ui-api's per-request work after the class-api call: parse the
+ * /combined body, build the cards and write the dashboard JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DashboardBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private String combined;
+
+    @Setup
+    public void setup() {
+        combined = "{\"aqi\":87.0,\"uv\":6.4,\"summary\":\"AQI 87 (Moderate), UV 6.4 (High)\"}";
+    }
+
+    @Benchmark
+    public String assemble() throws IOException {
+        return mapper.writeValueAsString(DashboardAssembler.assemble(mapper.readTree(combined)));
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.nawafalb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Follows the /changes long-poll of the service in front of it and republishes
+ * the version through a {@link VersionSignal}: class-api follows the Data API,
+ * ui-api follows class-api. One request is outstanding at a time, however many
+ * clients are waiting downstream. Failed polls back off from 500ms to 30s.
+ *
+ * /changes?since=V&timeout=MS answers {"version": N} as soon as N > V, or with
+ * the current version once the timeout passes.
+ */
+public final class ChangeFeed {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String url;
+    private final long pollMillis;
+    private final HttpClient client;
+    private final VersionSignal signal = new VersionSignal();
+    private Thread poller;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /** Follows {@code url} (e.g. http://localhost:8080/changes), holding each poll open for up to {@code pollMillis}. */
+    public ChangeFeed(String url, long pollMillis) {
+        this.url = url;
+        this.pollMillis = pollMillis;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public VersionSignal signal() { return signal; }
+
+    /** Starts polling; later calls do nothing. */
+    public synchronized void start() {
+        if (poller != null) return;
+        poller = Thread.ofVirtual().name("change-feed").start(this::run);
+    }
+
+    private void run() {
+        long backoff = 0;
+        String lastError = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                HttpRequest req = HttpRequest.newBuilder(URI.create(url + "?since=" + signal.get() + "&timeout=" + pollMillis))
+                        .timeout(Duration.ofMillis(pollMillis + 10_000))
+                        .GET()
+                        .build();
+                polls.increment();
+                HttpResponse<String> resp = client.send(req, HttpResponse.BodyHandlers.ofString());
+                if (resp.statusCode() != 200) throw new IOException("status " + resp.statusCode());
+                long v = mapper.readTree(resp.body()).path("version").asLong(-1);
+                if (signal.publish(v)) changes.increment();
+                backoff = 0;
+                lastError = null;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                failures.increment();
+                String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                if (!error.equals(lastError)) System.err.println("Change feed " + url + " failed: " + error);
+                lastError = error;
+                backoff = backoff == 0 ? 500 : Math.min(backoff * 2, MAX_BACKOFF_MS);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("url", url);
+        m.put("version", signal.get());
+        m.put("polls", polls.sum());
+        m.put("changes", changes.sum());
+        m.put("failures", failures.sum());
+        return m;
+    }
+
+    /** The timeout= of a /changes request, capped at {@code max}; {@code fallback} when absent or invalid. */
+    public static long timeoutParam(String value, long fallback, long max) {
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Math.max(0, Math.min(Long.parseLong(value.trim()), max));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /** The since= of a /changes request; -1 (anything is newer) when absent or invalid. */
+    public static long sinceParam(String value) {
+        if (value == null || value.isBlank()) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.nawafalb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops calling an upstream that keeps failing. After BREAKER_FAILURES
+ * failures in a row (default 5) the breaker opens and {@link #allow()}
+ * refuses calls for BREAKER_OPEN_MS (default 5000), so callers answer
+ * straight away, from a stale copy or with an error, instead of each
+ * waiting out a timeout. Then one probe call is let through: success
+ * closes the breaker, failure opens it again.
+ *
+ * The state is exported as circuit_breaker_state (0 closed, 1 half-open,
+ * 2 open) and in {@link #stats()}.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String upstream;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    public CircuitBreaker(String service, String upstream, int failureThreshold, long openMillis) {
+        this.upstream = upstream;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        Metrics.gauge("circuit_breaker_state", "Breaker on calls to the next service: 0 closed, 1 half-open, 2 open",
+                () -> state().ordinal(), "service", service, "upstream", upstream);
+        Metrics.counter("circuit_breaker_rejected_total", "Calls refused because the breaker was open",
+                rejected::sum, "service", service, "upstream", upstream);
+        Metrics.counter("circuit_breaker_opened_total", "Times the breaker opened",
+                opened::sum, "service", service, "upstream", upstream);
+    }
+
+    public static CircuitBreaker fromEnv(String service, String upstream) {
+        return new CircuitBreaker(service, upstream,
+                ServerExecutors.intEnv("BREAKER_FAILURES", 5),
+                ServerExecutors.intEnv("BREAKER_OPEN_MS", 5000));
+    }
+
+    /**
+     * Whether a call may go ahead now; every allowed call must end in {@link #success},
+     * {@link #failure} or {@link #release}.
+     */
+    public synchronized boolean allow() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    probing = true;
+                    return true;
+                }
+                break;
+            case HALF_OPEN:
+                // one probe at a time
+                if (!probing) {
+                    probing = true;
+                    return true;
+                }
+                break;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public synchronized void success() {
+        consecutiveFailures = 0;
+        probing = false;
+        state = State.CLOSED;
+    }
+
+    /** Ends an allowed call that says nothing about the upstream, e.g. one the caller abandoned. */
+    public synchronized void release() {
+        // a probe that never finished frees the slot for the next one
+        if (state == State.HALF_OPEN) probing = false;
+    }
+
+    public synchronized void failure() {
+        // calls let through before it opened may still be failing; the open period already covers them
+        if (state == State.OPEN) return;
+        probing = false;
+        if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) opened.increment();
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            consecutiveFailures = 0;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("upstream", upstream);
+        m.put("state", state.name().toLowerCase());
+        m.put("consecutiveFailures", consecutiveFailures);
+        m.put("failureThreshold", failureThreshold);
+        m.put("openMs", TimeUnit.NANOSECONDS.toMillis(openNanos));
+        m.put("opened", opened.sum());
+        m.put("rejected", rejected.sum());
+        return m;
+    }
+}
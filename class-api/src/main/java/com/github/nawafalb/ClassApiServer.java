@@ -3,70 +3,131 @@ package com.github.nawafalb;
 import static spark.Spark.*;
 import java.net.http.*;
 import java.net.URI;
-<<<<<<< Updated upstream
+import java.net.URLEncoder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-=======
-import com.fasterxml.jackson.databind.*;
->>>>>>> Stashed changes
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class ClassApiServer {
     private static final String DATA_API_URL = System.getenv().getOrDefault("DATA_API_URL", "http://localhost:8080");
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final HttpClient client = HttpClient.newHttpClient();
+    private static final Duration CALL_TIMEOUT = Duration.ofMillis(
+            Long.parseLong(System.getenv().getOrDefault("DATA_API_TIMEOUT_MS", "2000")));
+    private static final String LATEST = "?limit=1&order=desc";
+    private static final int MAX_VALIDATED = 256;
+    private static final Map<String, Validated> upstream = new ConcurrentHashMap<>();
+    private static volatile Validated lastCombined;
+    // Identical Data API calls in flight at once share one request; COALESCE_WINDOW_MS also reuses a fresh 200
+    private static final boolean COALESCE = !"false".equalsIgnoreCase(System.getenv("SINGLE_FLIGHT"));
+    private static final SingleFlight<Validated> flights = new SingleFlight<>("class-api", "data-api",
+            Long.parseLong(System.getenv().getOrDefault("COALESCE_WINDOW_MS", "0")), v -> v.status() == 200 && !v.stale());
+    private static volatile String dataApiUrl = DATA_API_URL;
+    private static ChangeFeed changes;
+
+    private static final Metrics.Route COMBINED = Metrics.route("class-api", "/combined");
+    private static final Metrics.Histogram DATA_CALLS = Metrics.histogram("upstream_request_duration_seconds",
+            "Time for calls to the next service", "service", "class-api", "upstream", "data-api");
+    private static final Metrics.Counter DATA_FAILURES = Metrics.counter("upstream_failures_total",
+            "Calls to the next service that failed or timed out", "service", "class-api", "upstream", "data-api");
+    private static final Metrics.Counter STALE = Metrics.counter("stale_responses_total",
+            "Answers built from the last good upstream response because the upstream failed", "service", "class-api");
+    private static final CircuitBreaker breaker = CircuitBreaker.fromEnv("class-api", "data-api");
+    private static final Hedger hedger = Hedger.fromEnv("class-api", "data-api");
+    static final String STALE_WARNING = "110 - \"Response is Stale\"";
+    // Jetty runs each request's filters and route on one thread
+    private static final ThreadLocal<long[]> requestStart = ThreadLocal.withInitial(() -> new long[1]);
 
     public static void main(String[] args) {
-        port(8081);
-        System.out.println("Class API Server @ http://localhost:8081 (data=" + DATA_API_URL + ")");
+        start(8081, DATA_API_URL);
+    }
 
-        get("/health", (req, res) -> { res.type("application/json"); return "{\"ok\":true}"; });
+    /** Starts serving on {@code port} (0 picks a free one) against the given Data API; returns the port. */
+    public static int start(int port, String dataUrl) {
+        dataApiUrl = dataUrl;
+        port(port);
 
-        get("/combined", (req, res) -> {
-            res.type("application/json");
-            try {
-                var aqiRes = client.send(HttpRequest.newBuilder(URI.create(DATA_API_URL + "/airquality")).GET().build(),
-                                         HttpResponse.BodyHandlers.ofString());
-                var uvRes  = client.send(HttpRequest.newBuilder(URI.create(DATA_API_URL + "/uv")).GET().build(),
-                                         HttpResponse.BodyHandlers.ofString());
+        // Server-Timing: "class" is this handler, "data" the Data API calls inside it
+        before("/combined", (req, res) -> requestStart.get()[0] = COMBINED.start());
+        after("/combined", (req, res) -> {
+            Long data = req.attribute("dataNanos");
+            String timing = "class;dur=" + millis(System.nanoTime() - requestStart.get()[0]);
+            res.header("Server-Timing", data == null ? timing : timing + ", data;dur=" + millis(data));
+        });
+        afterAfter("/combined", (req, res) -> COMBINED.end(requestStart.get()[0], res.status()));
 
-                if (aqiRes.statusCode() / 100 != 2 || uvRes.statusCode() / 100 != 2) {
-                    res.status(502);
-                    return jsonErr("data-api bad status",
-                                   "airquality", String.valueOf(aqiRes.statusCode()),
-                                   "uv",         String.valueOf(uvRes.statusCode()));
-                }
+        get("/health", (req, res) -> {
+            res.type("application/json");
+            return mapper.writeValueAsString(Map.of("ok", true, "singleFlight", flights.stats(),
+                    "breaker", breaker.stats(), "hedge", hedger.stats()));
+        });
+        get("/metrics", (req, res) -> { res.type(Metrics.CONTENT_TYPE); return Metrics.scrape(); });
 
-                // Parse arrays (or object fallback)
-                JsonNode aqiNode = mapper.readTree(aqiRes.body());
-                JsonNode uvNode  = mapper.readTree(uvRes.body());
+        // The Data API's change feed, followed with one long-poll and passed on to ui-api the same way
+        changes = new ChangeFeed(dataApiUrl + "/changes", 25_000);
+        changes.start();
+        get("/changes", (req, res) -> {
+            res.type("application/json");
+            res.header("Cache-Control", "no-store");
+            long since = ChangeFeed.sinceParam(req.queryParams("since"));
+            long timeout = ChangeFeed.timeoutParam(req.queryParams("timeout"), 25_000, 60_000);
+            return "{\"version\":" + changes.signal().await(since, timeout) + "}";
+        });
 
-                JsonNode aqiObj = aqiNode.isArray() && aqiNode.size() > 0 ? aqiNode.get(0) : aqiNode;
-                JsonNode uvObj  = uvNode.isArray()  && uvNode.size()  > 0 ? uvNode.get(0)  : uvNode;
+        get("/combined", (req, res) -> {
+            res.type("application/json");
+            String locations = req.queryParams("locations");
+            if (locations != null) return combinedGrid(req, res, locations);
+            try {
+                // newest reading only; the tables keep history. Both calls are in flight at once,
+                // so latency is the slower of the two rather than their sum.
+                long sent = System.nanoTime();
+                CompletableFuture<Validated> aqiCall = fetch(dataApiUrl + "/airquality" + LATEST);
+                CompletableFuture<Validated> uvCall  = fetch(dataApiUrl + "/uv" + LATEST);
+                Validated aqiRes = aqiCall.join();
+                Validated uvRes  = uvCall.join();
+                req.attribute("dataNanos", System.nanoTime() - sent);
 
-                if (aqiObj.isMissingNode() || uvObj.isMissingNode()) {
-                    res.status(502);
-                    return jsonErr("data-api returned empty arrays");
+                // Same upstream versions -> same combined body; a stale answer gets no ETag
+                boolean stale = aqiRes.stale() || uvRes.stale();
+                String etag = !stale && aqiRes.status() == 200 && uvRes.status() == 200
+                        && aqiRes.etag() != null && uvRes.etag() != null ? ETags.of(aqiRes.etag(), uvRes.etag()) : null;
+                if (etag != null) {
+                    res.header("ETag", etag);
+                    if (ETags.matches(req.headers("If-None-Match"), etag)) {
+                        res.status(304);
+                        return "";
+                    }
+                    Validated last = lastCombined;
+                    if (last != null && etag.equals(last.etag())) return last.body();
                 }
 
-                // ✅ match your keys exactly
-                double aqi = aqiObj.path("air_quality").asDouble(Double.NaN);
-                double uv  = uvObj.path("uv_index").asDouble(Double.NaN);
+                double aqi = reading(aqiRes, "air_quality");
+                double uv  = reading(uvRes, "uv_index");
 
-                if (Double.isNaN(aqi) || Double.isNaN(uv)) {
+                if (Double.isNaN(aqi) && Double.isNaN(uv)) {
                     res.status(502);
-                    return jsonErr("missing fields", "haveAqi", aqiObj.toString(), "haveUv", uvObj.toString());
+                    return jsonErr("data-api unavailable",
+                                   "airquality", describe(aqiRes),
+                                   "uv",         describe(uvRes));
                 }
 
-                String air = (aqi < 50 ? "Good Air" : "Poor Air");
-                String sun = (uv < 3 ? "Low UV" : "High UV");
-                String summary = air + " & " + sun;
-
                 var out = mapper.createObjectNode();
-                out.put("aqi", aqi);
-                out.put("uv", uv);
-                out.put("summary", summary);
-                return mapper.writeValueAsString(out);
+                summarize(out, aqi, uv, describe(aqiRes), describe(uvRes));
+                if (stale) markStale(res, out);
+                String body = mapper.writeValueAsString(out);
+                if (etag != null) lastCombined = new Validated(etag, 200, body);
+                return body;
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -74,6 +135,190 @@ public class ClassApiServer {
                 return jsonErr("exception in class-api", "message", e.getMessage() == null ? "null" : e.getMessage());
             }
         });
+
+        awaitInitialization();
+        System.out.println("Class API Server @ http://localhost:" + port() + " (data=" + dataApiUrl + ")");
+        return port();
+    }
+
+    // GET /combined?locations=lat,lon;lat,lon -> {"locations":[{latitude, longitude, aqi, uv, summary}, ...]}
+    // The whole grid is one Data API call (/latest), not two per location.
+    private static String combinedGrid(spark.Request req, spark.Response res, String locations) {
+        try {
+            long sent = System.nanoTime();
+            Validated latest = fetch(dataApiUrl + "/latest?locations="
+                    + URLEncoder.encode(locations, StandardCharsets.UTF_8)).join();
+            req.attribute("dataNanos", System.nanoTime() - sent);
+            if (latest.status() == 400) {
+                // the Data API checks the list; pass its message on
+                res.status(400);
+                return latest.body();
+            }
+            if (latest.status() != 200) {
+                res.status(502);
+                return jsonErr("data-api unavailable", "latest", describe(latest));
+            }
+
+            if (latest.etag() != null && !latest.stale()) {
+                String etag = ETags.of("grid", latest.etag());
+                res.header("ETag", etag);
+                if (ETags.matches(req.headers("If-None-Match"), etag)) {
+                    res.status(304);
+                    return "";
+                }
+            }
+
+            ObjectNode out = mapper.createObjectNode();
+            ArrayNode grid = out.putArray("locations");
+            for (JsonNode loc : mapper.readTree(latest.body()).path("locations")) {
+                ObjectNode o = grid.addObject();
+                o.set("latitude", loc.get("latitude"));
+                o.set("longitude", loc.get("longitude"));
+                summarize(o, number(loc.path("airquality"), "air_quality"), number(loc.path("uv"), "uv_index"),
+                        "no reading", "no reading");
+            }
+            if (latest.stale()) markStale(res, out);
+            return mapper.writeValueAsString(out);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            res.status(500);
+            return jsonErr("exception in class-api", "message", e.getMessage() == null ? "null" : e.getMessage());
+        }
+    }
+
+    // aqi, uv and a summary; with one source down, answer with what we have and say what is missing
+    private static void summarize(ObjectNode out, double aqi, double uv, String aqiMissing, String uvMissing) {
+        String air = Double.isNaN(aqi) ? "Air N/A" : (aqi < 50 ? "Good Air" : "Poor Air");
+        String sun = Double.isNaN(uv) ? "UV N/A" : (uv < 3 ? "Low UV" : "High UV");
+
+        if (!Double.isNaN(aqi)) out.put("aqi", aqi);
+        if (!Double.isNaN(uv)) out.put("uv", uv);
+        out.put("summary", air + " & " + sun);
+        if (Double.isNaN(aqi) || Double.isNaN(uv)) {
+            out.put("degraded", true);
+            ObjectNode missing = out.putObject("missing");
+            if (Double.isNaN(aqi)) missing.put("airquality", aqiMissing);
+            if (Double.isNaN(uv)) missing.put("uv", uvMissing);
+        }
+    }
+
+    private static double number(JsonNode row, String field) {
+        JsonNode n = row.path(field);
+        return n.isNumber() ? n.asDouble() : Double.NaN;
+    }
+
+    // Data API data the answer was built from is an old copy: say so in the body and in a Warning header
+    private static void markStale(spark.Response res, ObjectNode out) {
+        STALE.inc();
+        out.put("stale", true);
+        res.header("Warning", STALE_WARNING);
+    }
+
+    // Last good Data API response per URL, revalidated with If-None-Match.
+    // status 0 means the call itself failed (timeout, connection refused); body then holds the reason.
+    // stale marks the last good response handed out in place of a failed call.
+    record Validated(String etag, int status, String body, boolean stale) {
+        Validated(String etag, int status, String body) {
+            this(etag, status, body, false);
+        }
+    }
+
+    private static CompletableFuture<Validated> fetch(String url) {
+        return COALESCE ? flights.run(url, () -> guarded(url)) : guarded(url);
+    }
+
+    // Through the breaker, hedged; when the call fails or the breaker refuses it, the last good response stands in
+    private static CompletableFuture<Validated> guarded(String url) {
+        if (!breaker.allow()) return CompletableFuture.completedFuture(fallback(url, new Validated(null, 0, "circuit open")));
+        return hedger.call(() -> fetchAsync(url), ClassApiServer::answered).thenApply(v -> {
+            if (answered(v)) {
+                breaker.success();
+                return v;
+            }
+            breaker.failure();
+            return fallback(url, v);
+        });
+    }
+
+    // Any answer but a failed call or a 5xx; a 400 for a bad locations list is still an answer
+    private static boolean answered(Validated v) {
+        return v.status() != 0 && v.status() < 500;
+    }
+
+    private static Validated fallback(String url, Validated failed) {
+        Validated last = upstream.get(url);
+        return last == null ? failed : new Validated(last.etag(), last.status(), last.body(), true);
+    }
+
+    private static CompletableFuture<Validated> fetchAsync(String url) {
+        Validated last = upstream.get(url);
+        // The JDK client doesn't decompress by itself; decode() below does
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url)).timeout(CALL_TIMEOUT)
+                .header("Accept-Encoding", "gzip")
+                .GET();
+        if (last != null) b.header("If-None-Match", last.etag());
+
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> send = client.sendAsync(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<Validated> call = send
+                .orTimeout(CALL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((r, err) -> {
+                    DATA_CALLS.recordSince(start);
+                    if (err != null) {
+                        DATA_FAILURES.inc();
+                        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                        return new Validated(null, 0, cause.getClass().getSimpleName());
+                    }
+                    if (r.statusCode() == 304 && last != null) return last;
+
+                    String body;
+                    try {
+                        body = new String(Compression.decode(r.body(), r.headers().firstValue("Content-Encoding").orElse(null)),
+                                StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        DATA_FAILURES.inc();
+                        return new Validated(null, 0, e.getClass().getSimpleName());
+                    }
+                    Validated v = new Validated(r.headers().firstValue("ETag").orElse(null), r.statusCode(), body);
+                    if (v.status() == 200 && v.etag() != null) {
+                        // grid URLs vary with the locations asked for, so keep this bounded
+                        if (upstream.size() >= MAX_VALIDATED) upstream.clear();
+                        upstream.put(url, v);
+                    }
+                    return v;
+                });
+        // cancelling a dependent stage doesn't reach the exchange; a hedge that lost has to abort it
+        call.whenComplete((v, err) -> {
+            if (call.isCancelled()) send.cancel(true);
+        });
+        return call;
+    }
+
+    // Value of the newest row, NaN when the call failed or the row is missing
+    private static double reading(Validated v, String field) {
+        if (v.status() != 200) return Double.NaN;
+        try {
+            JsonNode node = items(mapper.readTree(v.body()));
+            JsonNode row = node.isArray() ? node.path(0) : node;
+            return row.path(field).asDouble(Double.NaN);
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    private static String describe(Validated v) {
+        if (v.status() == 0) return v.body();
+        return v.status() == 200 ? "no reading" : "status " + v.status();
+    }
+
+    // Paged responses wrap the rows as {"items": [...]}
+    private static JsonNode items(JsonNode node) {
+        return node.has("items") ? node.get("items") : node;
     }
 
     private static String jsonErr(String msg, String... kv) {
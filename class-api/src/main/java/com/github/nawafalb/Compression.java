@@ -0,0 +1,173 @@
+package com.github.nawafalb;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-Encoding negotiation shared by the three services: gzip or
+ * deflate, picked from the client's Accept-Encoding by q-value (gzip wins
+ * a tie). Bodies under COMPRESS_MIN_BYTES (default 1024) are sent as they
+ * are, since below that the framing costs more than it saves;
+ * COMPRESSION=false turns it off.
+ *
+ * A compressed body is a different representation, so its ETag gets the
+ * coding appended ({@link #etag}) and responses carry Vary: Accept-Encoding.
+ */
+public final class Compression {
+
+    public enum Coding {
+        IDENTITY("identity"), GZIP("gzip"), DEFLATE("deflate");
+
+        public final String token;
+
+        Coding(String token) { this.token = token; }
+    }
+
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getenv("COMPRESSION"));
+    public static final int MIN_BYTES = ServerExecutors.intEnv("COMPRESS_MIN_BYTES", 1024);
+
+    private Compression() { }
+
+    /** The coding to use for a body of unknown length, e.g. a streamed list. */
+    public static Coding negotiate(String acceptEncoding) {
+        if (!ENABLED || acceptEncoding == null || acceptEncoding.isBlank()) return Coding.IDENTITY;
+        double gzip = -1, deflate = -1, any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (name) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> any = q;
+                default -> { }
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip <= 0 && deflate <= 0) return Coding.IDENTITY;
+        return gzip >= deflate ? Coding.GZIP : Coding.DEFLATE;
+    }
+
+    /** The coding to use for a body of {@code length} bytes. */
+    public static Coding negotiate(String acceptEncoding, int length) {
+        return length < MIN_BYTES ? Coding.IDENTITY : negotiate(acceptEncoding);
+    }
+
+    /** {@code etag} for the given representation: "abc" becomes "abc-gzip". */
+    public static String etag(String etag, Coding coding) {
+        if (etag == null || coding == Coding.IDENTITY) return etag;
+        return etag.substring(0, etag.length() - 1) + "-" + coding.token + "\"";
+    }
+
+    /** Content-Encoding and Vary for a response; call before sendResponseHeaders. */
+    public static void headers(Headers headers, Coding coding) {
+        if (!ENABLED) return;
+        headers.set("Vary", "Accept-Encoding");
+        if (coding != Coding.IDENTITY) headers.set("Content-Encoding", coding.token);
+    }
+
+    /** Wraps {@code out} so whatever is written to it goes out in {@code coding}; closing it finishes the stream. */
+    public static OutputStream encoder(OutputStream out, Coding coding) throws IOException {
+        return switch (coding) {
+            case IDENTITY -> out;
+            case GZIP -> new GZIPOutputStream(out, 8192);
+            case DEFLATE -> {
+                Deflater deflater = new Deflater();
+                yield new DeflaterOutputStream(out, deflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    public static byte[] encode(byte[] body, Coding coding) {
+        if (coding == Coding.IDENTITY) return body;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (OutputStream z = encoder(out, coding)) {
+            z.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("compressing in memory failed", e);
+        }
+        return out.toByteArray();
+    }
+
+    /** Undoes the response's Content-Encoding (null or identity leaves the body alone). */
+    public static byte[] decode(byte[] body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return body;
+        InputStream in = switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(new ByteArrayInputStream(body));
+            case "deflate" -> new InflaterInputStream(new ByteArrayInputStream(body));
+            case "identity", "" -> null;
+            default -> throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        };
+        if (in == null) return body;
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * A body plus its compressed forms, each made the first time it is asked
+     * for and then kept, so a cached response is compressed once rather than
+     * on every hit.
+     */
+    public static final class Variants {
+        public final byte[] identity;
+        private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(Coding.values().length);
+
+        public Variants(byte[] identity) {
+            this.identity = identity;
+        }
+
+        public byte[] get(Coding coding) {
+            if (coding == Coding.IDENTITY) return identity;
+            byte[] b = encoded.get(coding.ordinal());
+            if (b == null) {
+                // two threads may both compress; the first one kept wins
+                b = encode(identity, coding);
+                if (!encoded.compareAndSet(coding.ordinal(), null, b)) b = encoded.get(coding.ordinal());
+            }
+            return b;
+        }
+
+        /** Bytes held, counting the compressed forms made so far. */
+        public int size() {
+            int n = identity.length;
+            for (int i = 0; i < encoded.length(); i++) {
+                byte[] b = encoded.get(i);
+                if (b != null) n += b.length;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.nawafalb;
+
+/**
+ * Strong entity tags shared by the three services. Data API tags come from the
+ * data version; class-api and ui-api derive theirs from the upstream tags they
+ * built the response from, so an unchanged chain yields an unchanged tag.
+ */
+public final class ETags {
+
+    private ETags() { }
+
+    /** A strong tag for the given parts, e.g. of(version, path). */
+    public static String of(Object... parts) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (Object part : parts) {
+            String s = String.valueOf(part);
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= 0x1f;
+            h *= 0x100000001b3L;
+        }
+        return "\"" + Long.toHexString(h) + "\"";
+    }
+
+    /** If-None-Match check (weak comparison, as RFC 9110 asks for GET). */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        String want = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.equals("*") || opaque(c).equals(want)) return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
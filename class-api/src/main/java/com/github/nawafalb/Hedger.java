@@ -0,0 +1,151 @@
+package com.github.nawafalb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Hedged calls: when a call to the next service is still running after
+ * the HEDGE_PERCENTILE (default 95) of that hop's good answers, a second
+ * identical call is sent, whichever answers well first is used, and the
+ * other is cancelled. Only the slowest few percent of calls are
+ * duplicated, and one stuck connection no longer sets the tail. Fast
+ * failures are not hedged; that is the breaker's job.
+ *
+ * The delay comes from the hedger's own histogram of attempts {@code ok}
+ * accepted, so failures and timeouts don't push it up. It is never under
+ * HEDGE_MIN_MS (default 10) and is only used once the histogram has
+ * MIN_SAMPLES answers; HEDGE_PERCENTILE=0 turns hedging off.
+ * Only use it for idempotent requests, and attempts should abort their
+ * call when their future is cancelled.
+ */
+public final class Hedger {
+
+    private static final long MIN_SAMPLES = 20;
+    private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Metrics.Histogram latency;
+    private final double percentile;
+    private final long minDelayMillis;
+    private volatile long delayMillis = -1;
+    private volatile long computedAt;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public Hedger(String service, String upstream, double percentile, long minDelayMillis) {
+        this(service, upstream, new Metrics.Histogram(), percentile, minDelayMillis);
+    }
+
+    Hedger(String service, String upstream, Metrics.Histogram latency, double percentile, long minDelayMillis) {
+        this.latency = latency;
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.computedAt = System.nanoTime() - RECOMPUTE_NANOS;
+        Metrics.counter("hedged_requests_total", "Second calls sent because the first was slower than the hedge delay",
+                hedged::sum, "service", service, "upstream", upstream);
+        Metrics.counter("hedge_wins_total", "Hedged calls that answered before the first",
+                hedgeWins::sum, "service", service, "upstream", upstream);
+    }
+
+    public static Hedger fromEnv(String service, String upstream) {
+        return new Hedger(service, upstream,
+                ServerExecutors.intEnv("HEDGE_PERCENTILE", 95),
+                ServerExecutors.intEnv("HEDGE_MIN_MS", 10));
+    }
+
+    /**
+     * Runs {@code attempt}, and again if the first is still going after the
+     * hedge delay. Completes with the first result {@code ok} accepts, or
+     * with the last one to finish when none is. Once the result is in, the
+     * attempt still running is cancelled.
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> attempt, Predicate<T> ok) {
+        calls.increment();
+        long delay = delay();
+        long started = System.nanoTime();
+        CompletableFuture<T> first = start(attempt);
+        if (delay < 0) {
+            first.whenComplete((v, err) -> {
+                if (err == null && ok.test(v)) latency.recordSince(started);
+            });
+            return first;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<T>> second = new AtomicReference<>();
+        first.whenComplete((v, err) -> settle(result, outstanding, v, err, ok, false, started));
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            if (result.isDone()) return;
+            outstanding.incrementAndGet();
+            hedged.increment();
+            long hedgeStarted = System.nanoTime();
+            CompletableFuture<T> hedge = start(attempt);
+            second.set(hedge);
+            hedge.whenComplete((v, err) -> settle(result, outstanding, v, err, ok, true, hedgeStarted));
+            // the result may have come in while the hedge was starting
+            if (result.isDone()) hedge.cancel(true);
+        });
+        result.whenComplete((v, err) -> {
+            first.cancel(true);
+            CompletableFuture<T> hedge = second.get();
+            if (hedge != null) hedge.cancel(true);
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> attempt) {
+        try {
+            return attempt.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> void settle(CompletableFuture<T> result, AtomicInteger outstanding, T value, Throwable err,
+                            Predicate<T> ok, boolean hedge, long started) {
+        boolean last = outstanding.decrementAndGet() == 0;
+        if (err == null && ok.test(value)) {
+            latency.recordSince(started);
+            if (result.complete(value) && hedge) hedgeWins.increment();
+        } else if (err instanceof CancellationException && !hedge) {
+            // a first attempt the hedge beat took at least this long; leaving it out
+            // would pull the delay down every time a hedge wins
+            latency.recordSince(started);
+        } else if (last) {
+            if (err != null) result.completeExceptionally(err); else result.complete(value);
+        }
+    }
+
+    /** Milliseconds to wait before hedging, or -1 for no hedge. */
+    long delay() {
+        if (percentile <= 0) return -1;
+        long now = System.nanoTime();
+        if (now - computedAt >= RECOMPUTE_NANOS) {
+            // the percentile walks the whole histogram, so it is refreshed once a second rather than per call
+            delayMillis = latency.count() < MIN_SAMPLES ? -1
+                    : Math.max(minDelayMillis, TimeUnit.MICROSECONDS.toMillis(latency.percentile(percentile)));
+            computedAt = now;
+        }
+        return delayMillis;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("percentile", percentile);
+        m.put("delayMs", delay());
+        m.put("calls", calls.sum());
+        m.put("hedged", hedged.sum());
+        m.put("hedgeWins", hedgeWins.sum());
+        return m;
+    }
+}
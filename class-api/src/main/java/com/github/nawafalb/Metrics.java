@@ -0,0 +1,334 @@
+package com.github.nawafalb;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics, scraped in Prometheus text format from /metrics.
+ *
+ * Handles ({@link Counter}, {@link Gauge}, {@link Histogram}, {@link Route})
+ * are looked up once, at startup, and kept in fields. Recording on them is
+ * then lock-free and allocation-free: counters are LongAdders, and
+ * histograms bump one slot of an AtomicLongArray.
+ */
+public final class Metrics {
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private Metrics() { }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    /** A value that goes up and down, e.g. requests in flight. */
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        public void inc() { value.incrementAndGet(); }
+        public void dec() { value.decrementAndGet(); }
+        public void set(long v) { value.set(v); }
+        public long get() { return value.get(); }
+    }
+
+    /**
+     * Latency histogram in microseconds with log-linear buckets, as in
+     * HdrHistogram: every power of two is split into 16 sub-buckets, so a
+     * recorded value is off by at most 1/16 (about 6%) from 1µs to hours.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXP = 40;  // ~12 days in µs
+        private static final int BUCKETS = SUB + (MAX_EXP - SUB_BITS + 1) * SUB;
+
+        // Prometheus "le" bounds in µs: the top of the native bucket holding each of 100µs, 250µs ... 10s,
+        // so an exported bucket is a sum of whole native ones and its count is exact, not an estimate
+        static final long[] EXPORT_BOUNDS = nativeBounds(
+                100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+                100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000);
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sumMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        public void recordNanos(long nanos) {
+            record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+
+        /** Records the time since {@code startNanos} (a System.nanoTime() value). */
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public void record(long micros) {
+            long v = Math.max(0, micros);
+            counts.incrementAndGet(index(v));
+            sumMicros.add(v);
+            long max;
+            while (v > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, v)) { }
+        }
+
+        public long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+            return n;
+        }
+
+        /** Upper bound of the bucket holding the given percentile (0-100), in µs; 0 when empty. */
+        public long percentile(double p) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), maxMicros.get());
+            }
+            return maxMicros.get();
+        }
+
+        public long max() { return maxMicros.get(); }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp > MAX_EXP) return BUCKETS - 1;
+            int sub = (int) (v >>> (exp - SUB_BITS)) - SUB;
+            return SUB + (exp - SUB_BITS) * SUB + sub;
+        }
+
+        // largest value that lands in bucket i
+        static long upperBound(int i) {
+            if (i < SUB) return i;
+            int exp = (i - SUB) / SUB + SUB_BITS;
+            long sub = (i - SUB) % SUB + SUB;
+            return ((sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        private static long[] nativeBounds(long... micros) {
+            long[] bounds = new long[micros.length];
+            for (int i = 0; i < micros.length; i++) bounds[i] = upperBound(index(micros[i]));
+            return bounds;
+        }
+
+        void write(StringBuilder out, String name, String labels) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            int i = 0;
+            long cumulative = 0;
+            for (long bound : EXPORT_BOUNDS) {
+                while (i < BUCKETS && upperBound(i) <= bound) cumulative += snapshot[i++];
+                sample(out, name + "_bucket", withLabel(labels, "le", seconds(bound)), cumulative);
+            }
+            sample(out, name + "_bucket", withLabel(labels, "le", "+Inf"), total);
+            out.append(name).append("_sum").append(labels).append(' ')
+                    .append(seconds(sumMicros.sum())).append('\n');
+            sample(out, name + "_count", labels, total);
+        }
+    }
+
+    /**
+     * Request metrics for one route: a count per status class, latency,
+     * requests in flight and server errors (5xx or an exception).
+     */
+    public static final class Route {
+        private final Counter[] byStatus = new Counter[6];
+        private final Histogram latency;
+        private final Gauge inFlight;
+        private final Counter errors;
+
+        private Route(String service, String route) {
+            for (int c = 1; c <= 5; c++) {
+                byStatus[c] = counter("http_requests_total", "Requests handled, by status class",
+                        "service", service, "route", route, "code", c + "xx");
+            }
+            latency = histogram("http_request_duration_seconds", "Time to handle a request",
+                    "service", service, "route", route);
+            inFlight = gauge("http_requests_in_flight", "Requests being handled right now",
+                    "service", service, "route", route);
+            errors = counter("http_server_errors_total", "Requests that failed with a 5xx or an exception",
+                    "service", service, "route", route);
+        }
+
+        /** Call when the request arrives; pass the result to {@link #end}. */
+        public long start() {
+            inFlight.inc();
+            return System.nanoTime();
+        }
+
+        public void end(long startNanos, int status) {
+            latency.recordSince(startNanos);
+            inFlight.dec();
+            byStatus[status >= 100 && status < 600 ? status / 100 : 5].inc();
+            if (status >= 500 || status < 100) errors.inc();
+        }
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return family(name, help, "counter").get(labels, Counter::new, Counter.class);
+    }
+
+    public static Gauge gauge(String name, String help, String... labels) {
+        return family(name, help, "gauge").get(labels, Gauge::new, Gauge.class);
+    }
+
+    /** A gauge read from {@code value} at scrape time, e.g. a pool's idle connections. */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").put(labels, value);
+    }
+
+    /** Like {@link #gauge(String, String, DoubleSupplier, String...)} for a value that only goes up. */
+    public static void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").put(labels, value);
+    }
+
+    public static Histogram histogram(String name, String help, String... labels) {
+        return family(name, help, "histogram").get(labels, Histogram::new, Histogram.class);
+    }
+
+    public static Route route(String service, String route) {
+        return new Route(service, route);
+    }
+
+    /** Wraps a JDK HttpServer handler so every request is counted and timed. */
+    public static HttpHandler instrument(String service, String route, HttpHandler handler) {
+        Route metrics = route(service, route);
+        return ex -> {
+            long start = metrics.start();
+            int status = 500;
+            try {
+                handler.handle(ex);
+                status = ex.getResponseCode();
+            } finally {
+                metrics.end(start, status);
+            }
+        };
+    }
+
+    /** Everything registered so far, in Prometheus text exposition format. */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family f : new TreeMap<>(families).values()) {
+            f.write(out);
+        }
+        return out.toString();
+    }
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** The /metrics handler for a JDK HttpServer. */
+    public static void handle(HttpExchange ex) throws IOException {
+        byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!f.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + f.type);
+        }
+        return f;
+    }
+
+    // One metric name; each label set is a separate series
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        <T> T get(String[] labels, Supplier<T> create, Class<T> kind) {
+            Object m = series.computeIfAbsent(labels(labels), k -> create.get());
+            return kind.cast(m);
+        }
+
+        void put(String[] labels, DoubleSupplier value) {
+            series.put(labels(labels), value);
+        }
+
+        void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, Object> e : new TreeMap<>(series).entrySet()) {
+                Object m = e.getValue();
+                if (m instanceof Counter c) {
+                    sample(out, name, e.getKey(), c.get());
+                } else if (m instanceof Gauge g) {
+                    sample(out, name, e.getKey(), g.get());
+                } else if (m instanceof Histogram h) {
+                    h.write(out, name, e.getKey());
+                } else if (m instanceof DoubleSupplier s) {
+                    out.append(name).append(e.getKey()).append(' ').append(number(s.getAsDouble())).append('\n');
+                }
+            }
+        }
+    }
+
+    // {k1="v1",k2="v2"} from k1, v1, k2, v2
+    static String labels(String... kv) {
+        if (kv.length % 2 != 0) throw new IllegalArgumentException("labels must be name/value pairs");
+        if (kv.length == 0) return "";
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < kv.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(kv[i]).append("=\"").append(escape(kv[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String extra = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + extra + "}" : labels.substring(0, labels.length() - 1) + "," + extra + "}";
+    }
+
+    private static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return number(micros / 1e6);
+    }
+
+    private static String number(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        if (Double.isNaN(v) || Double.isInfinite(v)) return Double.toString(v);
+        return BigDecimal.valueOf(v).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.nawafalb;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request executors for the JDK HttpServer front ends (Data API and UI API).
+ *
+ * Modes, picked with HTTP_EXECUTOR:
+ *   virtual - one virtual thread per request, at most HTTP_MAX_CONCURRENCY running (default)
+ *   pool    - HTTP_POOL_THREADS platform threads with a bounded queue
+ *   single  - everything on the HttpServer dispatcher thread (the old behaviour)
+ * HTTP_QUEUE_CAPACITY bounds how many requests may wait in the first two modes.
+ */
+public class ServerExecutors {
+
+    public enum Mode { VIRTUAL, POOL, SINGLE }
+
+    private ServerExecutors() { }
+
+    /** Builds the executor described by the HTTP_* environment variables. */
+    public static RequestExecutor fromEnv(String name) {
+        Mode mode = parseMode(System.getenv("HTTP_EXECUTOR"));
+        int maxConcurrency = intEnv("HTTP_MAX_CONCURRENCY", 256);
+        int poolThreads = intEnv("HTTP_POOL_THREADS", Runtime.getRuntime().availableProcessors() * 2);
+        int queueCapacity = intEnv("HTTP_QUEUE_CAPACITY", 1024);
+
+        RequestExecutor executor = switch (mode) {
+            case VIRTUAL -> new VirtualExecutor(name, maxConcurrency, queueCapacity);
+            case POOL -> new PoolExecutor(name, poolThreads, queueCapacity);
+            case SINGLE -> new SingleExecutor(name);
+        };
+
+        Metrics.gauge("executor_active", "Requests running on the request executor", executor::active, "service", name);
+        Metrics.gauge("executor_queue_depth", "Requests waiting for the request executor", executor::queueDepth, "service", name);
+        Metrics.counter("executor_completed_total", "Requests the executor has finished", executor::completed, "service", name);
+        Metrics.counter("executor_rejected_total", "Requests turned away because the queue was full", executor::rejected, "service", name);
+        return executor;
+    }
+
+    static Mode parseMode(String value) {
+        if (value == null || value.isBlank()) return Mode.VIRTUAL;
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown HTTP_EXECUTOR=" + value + ", using virtual");
+            return Mode.VIRTUAL;
+        }
+    }
+
+    /** The integer in env var {@code name}, or {@code fallback} when it is unset or not a number. */
+    public static int intEnv(String name, int fallback) {
+        String v = System.getenv(name);
+        if (v == null || v.isBlank()) return fallback;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + name + "=" + v);
+            return fallback;
+        }
+    }
+
+    /**
+     * Executor handed to HttpServer.setExecutor. {@link #executor()} is null in
+     * single mode so the server keeps using its dispatcher thread.
+     */
+    public abstract static class RequestExecutor {
+        final String name;
+        final LongAdder completed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        RequestExecutor(String name) { this.name = name; }
+
+        public abstract Mode mode();
+        public abstract Executor executor();
+        /** Requests currently being handled. */
+        public abstract int active();
+        /** Requests accepted but still waiting for a slot. */
+        public abstract int queueDepth();
+        public abstract int limit();
+
+        public long completed() { return completed.sum(); }
+        public long rejected() { return rejected.sum(); }
+
+        public void shutdown() { }
+
+        public Map<String, Object> stats() {
+            Map<String, Object> m = new HashMap<>();
+            m.put("mode", mode().name().toLowerCase(Locale.ROOT));
+            m.put("limit", limit());
+            m.put("active", active());
+            m.put("queueDepth", queueDepth());
+            m.put("completed", completed());
+            m.put("rejected", rejected());
+            return m;
+        }
+
+        @Override
+        public String toString() {
+            return name + " executor " + stats();
+        }
+    }
+
+    static final class VirtualExecutor extends RequestExecutor implements Executor {
+        private final int maxConcurrency;
+        private final int queueCapacity;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final Thread.Builder builder;
+
+        VirtualExecutor(String name, int maxConcurrency, int queueCapacity) {
+            super(name);
+            this.maxConcurrency = maxConcurrency;
+            this.queueCapacity = queueCapacity;
+            this.permits = new Semaphore(maxConcurrency);
+            this.builder = Thread.ofVirtual().name(name + "-vt-", 0);
+        }
+
+        @Override public Mode mode() { return Mode.VIRTUAL; }
+        @Override public Executor executor() { return this; }
+        @Override public int active() { return running.get(); }
+        @Override public int queueDepth() { return waiting.get(); }
+        @Override public int limit() { return maxConcurrency; }
+
+        @Override
+        public void execute(Runnable task) {
+            if (permits.tryAcquire()) {
+                builder.start(() -> runHolding(task));
+                return;
+            }
+
+            // Over the limit: park on a virtual thread rather than blocking the dispatcher
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                rejected.increment();
+                throw new RejectedExecutionException(name + ": too many queued requests");
+            }
+            builder.start(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    waiting.decrementAndGet();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                waiting.decrementAndGet();
+                runHolding(task);
+            });
+        }
+
+        private void runHolding(Runnable task) {
+            running.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                permits.release();
+                completed.increment();
+            }
+        }
+    }
+
+    static final class PoolExecutor extends RequestExecutor {
+        private final ThreadPoolExecutor pool;
+
+        PoolExecutor(String name, int threads, int queueCapacity) {
+            super(name);
+            AtomicInteger seq = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread t = new Thread(r, name + "-http-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    (r, executor) -> {
+                        rejected.increment();
+                        throw new RejectedExecutionException(name + ": request queue full");
+                    }) {
+                @Override
+                protected void afterExecute(Runnable r, Throwable t) {
+                    completed.increment();
+                }
+            };
+        }
+
+        @Override public Mode mode() { return Mode.POOL; }
+        @Override public Executor executor() { return pool; }
+        @Override public int active() { return pool.getActiveCount(); }
+        @Override public int queueDepth() { return pool.getQueue().size(); }
+        @Override public int limit() { return pool.getMaximumPoolSize(); }
+        @Override public void shutdown() { pool.shutdown(); }
+    }
+
+    static final class SingleExecutor extends RequestExecutor {
+        SingleExecutor(String name) { super(name); }
+
+        @Override public Mode mode() { return Mode.SINGLE; }
+        @Override public Executor executor() { return null; }
+        @Override public int active() { return 0; }
+        @Override public int queueDepth() { return 0; }
+        @Override public int limit() { return 1; }
+    }
+}
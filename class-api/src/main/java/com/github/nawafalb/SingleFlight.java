@@ -0,0 +1,103 @@
+package com.github.nawafalb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller
+ * (the leader) starts the fetch and everyone who asks while it is in
+ * flight gets the same future. With a window above zero, a result the
+ * {@code cacheable} test accepts is also handed out for that long after it
+ * completes, so a burst that arrives just after a fetch doesn't start
+ * another. Failures are shared with the waiters but never kept.
+ *
+ * upstream / calls is the share of requests that reached the service
+ * behind; the rest were coalesced or served from the window.
+ */
+public final class SingleFlight<V> {
+
+    private static final int MAX_RECENT = 1024;
+
+    private record Recent<V>(V value, long completedNanos) { }
+
+    private final long windowNanos;
+    private final Predicate<V> cacheable;
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Recent<V>> recent = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder upstream = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder windowHits = new LongAdder();
+
+    /** {@code service} and {@code name} label the metrics, e.g. ("class-api", "data-api"). */
+    public SingleFlight(String service, String name, long windowMillis, Predicate<V> cacheable) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.cacheable = cacheable;
+        Metrics.counter("singleflight_calls_total", "Calls made through single-flight",
+                calls::sum, "service", service, "flight", name);
+        Metrics.counter("singleflight_upstream_total", "Calls that went to the service behind",
+                upstream::sum, "service", service, "flight", name);
+        Metrics.counter("singleflight_coalesced_total", "Calls that joined a fetch already in flight",
+                coalesced::sum, "service", service, "flight", name);
+        Metrics.counter("singleflight_window_hits_total", "Calls answered from a fetch that just completed",
+                windowHits::sum, "service", service, "flight", name);
+    }
+
+    /** The in-flight or just-completed result for {@code key}, or a new one from {@code fetch}. */
+    public CompletableFuture<V> run(String key, Supplier<CompletableFuture<V>> fetch) {
+        calls.increment();
+        if (windowNanos > 0) {
+            Recent<V> r = recent.get(key);
+            if (r != null && System.nanoTime() - r.completedNanos() < windowNanos) {
+                windowHits.increment();
+                return CompletableFuture.completedFuture(r.value());
+            }
+        }
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        upstream.increment();
+        CompletableFuture<V> call;
+        try {
+            call = fetch.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((v, err) -> {
+            // kept in the window before leaving inFlight, so a caller in between finds one or the other
+            if (windowNanos > 0 && err == null && cacheable.test(v)) {
+                if (recent.size() >= MAX_RECENT) recent.clear();
+                recent.put(key, new Recent<>(v, System.nanoTime()));
+            }
+            inFlight.remove(key, mine);
+            if (err != null) mine.completeExceptionally(err); else mine.complete(v);
+        });
+        return mine;
+    }
+
+    public Map<String, Object> stats() {
+        long c = calls.sum();
+        long u = upstream.sum();
+        Map<String, Object> m = new HashMap<>();
+        m.put("windowMs", TimeUnit.NANOSECONDS.toMillis(windowNanos));
+        m.put("calls", c);
+        m.put("upstream", u);
+        m.put("coalesced", coalesced.sum());
+        m.put("windowHits", windowHits.sum());
+        m.put("inFlight", inFlight.size());
+        m.put("coalescingRatio", c == 0 ? 0.0 : Math.round((1 - (double) u / c) * 1000) / 1000.0);
+        return m;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.nawafalb;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * A version number that only goes up, which callers can wait on: the
+ * /changes long-polls park in {@link #await} until it moves past the
+ * version they already have. Waiting costs no thread of its own, so any
+ * number of waiters share one future per change.
+ */
+public final class VersionSignal {
+
+    private final AtomicLong version = new AtomicLong(-1);
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    private volatile CompletableFuture<Long> next = new CompletableFuture<>();
+
+    public long get() {
+        return version.get();
+    }
+
+    /** Called with each new version, on the thread that published it. */
+    public void onChange(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /** Moves to {@code v} if it is newer; returns whether it was. */
+    public boolean publish(long v) {
+        long prev = version.getAndAccumulate(v, Math::max);
+        if (v <= prev) return false;
+        CompletableFuture<Long> woken;
+        synchronized (this) {
+            woken = next;
+            next = new CompletableFuture<>();
+        }
+        woken.complete(v);
+        for (LongConsumer l : listeners) {
+            try {
+                l.accept(v);
+            } catch (RuntimeException e) {
+                System.err.println("Version listener failed: " + e);
+            }
+        }
+        return true;
+    }
+
+    /** The version once it is past {@code since}, or whatever it is after {@code timeoutMillis}. */
+    public long await(long since, long timeoutMillis) throws InterruptedException {
+        // take the future before reading the version, so a publish in between can't be missed
+        CompletableFuture<Long> f = next;
+        long v = version.get();
+        if (v > since || timeoutMillis <= 0) return v;
+        try {
+            f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // timed out: report the version as it stands
+        }
+        return Math.max(version.get(), v);
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MS = 50;
+
+    private static CircuitBreaker opened() {
+        CircuitBreaker b = new CircuitBreaker("test", "upstream", 3, OPEN_MS);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(b.allow());
+            b.failure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, b.state());
+        return b;
+    }
+
+    @Test
+    void opensAfterTheThresholdInARow() {
+        CircuitBreaker b = new CircuitBreaker("test", "upstream", 3, OPEN_MS);
+        b.failure();
+        b.failure();
+        b.success();   // the run is broken
+        b.failure();
+        b.failure();
+        assertEquals(CircuitBreaker.State.CLOSED, b.state());
+        b.failure();
+        assertEquals(CircuitBreaker.State.OPEN, b.state());
+        assertEquals(1L, b.stats().get("opened"));
+    }
+
+    @Test
+    void rejectsWhileOpen() {
+        CircuitBreaker b = opened();
+        assertFalse(b.allow());
+        assertFalse(b.allow());
+        assertEquals(2L, b.stats().get("rejected"));
+        // late failures from calls let through before it opened don't restart the open period
+        b.failure();
+        assertEquals(1L, b.stats().get("opened"));
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThroughAndSuccessCloses() throws InterruptedException {
+        CircuitBreaker b = opened();
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(b.allow());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, b.state());
+        assertFalse(b.allow(), "second probe while the first is out");
+        b.success();
+        assertEquals(CircuitBreaker.State.CLOSED, b.state());
+        assertTrue(b.allow());
+        assertTrue(b.allow());
+    }
+
+    // An interrupted or cancelled call says nothing about the upstream
+    @Test
+    void releaseFreesTheProbeWithoutCountingAFailure() throws InterruptedException {
+        CircuitBreaker b = new CircuitBreaker("test", "upstream", 1, OPEN_MS);
+        assertTrue(b.allow());
+        b.release();
+        assertEquals(CircuitBreaker.State.CLOSED, b.state());
+
+        b.failure();
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(b.allow());
+        b.release();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, b.state());
+        assertTrue(b.allow(), "the abandoned probe's slot is free again");
+        assertEquals(1L, b.stats().get("opened"));
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker b = opened();
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(b.allow());
+        b.failure();
+        assertEquals(CircuitBreaker.State.OPEN, b.state());
+        assertEquals(2L, b.stats().get("opened"));
+        assertFalse(b.allow(), "a new open period started with the failed probe");
+
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(b.allow());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, b.state());
+    }
+}
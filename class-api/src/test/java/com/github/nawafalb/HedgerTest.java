@@ -0,0 +1,102 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgerTest {
+
+    private static final long MIN_DELAY_MS = 50;
+
+    // Twenty 1ms answers make the p95 1ms, so the delay is the 50ms floor
+    private static Metrics.Histogram warm() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 0; i < 20; i++) h.record(1_000);
+        return h;
+    }
+
+    // The result's waiters can wake before its other dependents (cancelling, counting) have run
+    private static void eventually(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, message);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void noHedgeUntilThereAreEnoughSamples() {
+        Hedger hedger = new Hedger("test", "cold", new Metrics.Histogram(), 95, MIN_DELAY_MS);
+        assertEquals(-1, hedger.delay());
+        assertEquals(-1, new Hedger("test", "off", warm(), 0, MIN_DELAY_MS).delay());
+    }
+
+    @Test
+    void slowFirstAttemptIsHedgedAfterTheDelayAndCancelled() throws Exception {
+        Hedger hedger = new Hedger("test", "slow", warm(), 95, MIN_DELAY_MS);
+        assertEquals(MIN_DELAY_MS, hedger.delay());
+
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+        List<Long> startedAt = new ArrayList<>();
+        long t0 = System.nanoTime();
+        CompletableFuture<String> result = hedger.call(() -> {
+            synchronized (startedAt) {
+                startedAt.add(System.nanoTime() - t0);
+                return startedAt.size() == 1 ? stuck : CompletableFuture.completedFuture("fast");
+            }
+        }, v -> true);
+
+        assertEquals("fast", result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, startedAt.size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(startedAt.get(1)) >= MIN_DELAY_MS, "hedged too early");
+        eventually(stuck::isCancelled, "the losing attempt is cancelled");
+        eventually(() -> hedger.stats().get("hedgeWins").equals(1L), "hedge win counted");
+        assertEquals(1L, hedger.stats().get("hedged"));
+    }
+
+    @Test
+    void fastAnswerIsNotHedged() throws Exception {
+        Hedger hedger = new Hedger("test", "fast", warm(), 95, MIN_DELAY_MS);
+        int[] attempts = { 0 };
+        assertEquals("v", hedger.call(() -> {
+            attempts[0]++;
+            return CompletableFuture.completedFuture("v");
+        }, v -> true).get(5, TimeUnit.SECONDS));
+        Thread.sleep(MIN_DELAY_MS * 2);
+        assertEquals(1, attempts[0]);
+        assertEquals(0L, hedger.stats().get("hedged"));
+    }
+
+    @Test
+    void hedgeLoserIsCancelledWhenTheFirstAnswers() throws Exception {
+        Hedger hedger = new Hedger("test", "first", warm(), 95, MIN_DELAY_MS);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> hedge = new CompletableFuture<>();
+        int[] attempts = { 0 };
+        CompletableFuture<String> result = hedger.call(() -> attempts[0]++ == 0 ? first : hedge, v -> true);
+        while (hedger.stats().get("hedged").equals(0L)) Thread.sleep(5);
+        first.complete("first");
+        assertEquals("first", result.get(5, TimeUnit.SECONDS));
+        eventually(hedge::isCancelled, "the losing hedge is cancelled");
+        assertEquals(0L, hedger.stats().get("hedgeWins"));
+    }
+
+    // Failures must not feed the histogram the delay is taken from, or a failing upstream would push the delay up
+    @Test
+    void onlyAcceptedAnswersAreRecorded() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        Hedger hedger = new Hedger("test", "record", h, 95, MIN_DELAY_MS);
+        hedger.call(() -> CompletableFuture.completedFuture(503), v -> v < 500).join();
+        hedger.call(() -> CompletableFuture.<Integer>failedFuture(new IllegalStateException("down")), v -> true)
+                .exceptionally(e -> 0).join();
+        assertEquals(0, h.count());
+        hedger.call(() -> CompletableFuture.completedFuture(200), v -> v < 500).join();
+        assertEquals(1, h.count());
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsHistogramTest {
+
+    @Test
+    void smallValuesHaveABucketEach() {
+        for (int v = 0; v < 16; v++) {
+            assertEquals(v, Metrics.Histogram.index(v));
+            assertEquals(v, Metrics.Histogram.upperBound(v));
+        }
+    }
+
+    // 2^k opens a new octave of 16 sub-buckets: index 16 * (k - 3)
+    @Test
+    void powersOfTwoStartAnOctave() {
+        for (int k = 4; k <= 40; k++) {
+            long v = 1L << k;
+            int i = Metrics.Histogram.index(v);
+            assertEquals(16 * (k - 3), i, "2^" + k);
+            assertEquals(v - 1, Metrics.Histogram.upperBound(i - 1), "2^" + k);
+            assertEquals(i - 1, Metrics.Histogram.index(v - 1), "2^" + k + " - 1");
+        }
+    }
+
+    @Test
+    void bucketsAreContiguousAndWithinASixteenth() {
+        Random random = new Random(1);
+        for (int n = 0; n < 100_000; n++) {
+            long v = random.nextLong(1L << 40);
+            int i = Metrics.Histogram.index(v);
+            long upper = Metrics.Histogram.upperBound(i);
+            long lower = i == 0 ? 0 : Metrics.Histogram.upperBound(i - 1) + 1;
+            assertTrue(lower <= v && v <= upper, v + " in [" + lower + ", " + upper + "]");
+            assertTrue(upper - lower <= Math.max(0, v / 16), "width at " + v);
+        }
+    }
+
+    @Test
+    void valuesPastTheTopLandInTheLastBucket() {
+        assertEquals(Metrics.Histogram.index(Long.MAX_VALUE), Metrics.Histogram.index(1L << 50));
+    }
+
+    @Test
+    void percentileIsTheBucketTopCappedAtTheMax() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int v = 1; v <= 100; v++) h.record(v * 1000L);
+        assertEquals(100, h.count());
+        long p50 = h.percentile(50);
+        assertTrue(p50 >= 50_000 && p50 <= 50_000 * 17 / 16, "p50 " + p50);
+        assertEquals(100_000, h.percentile(100));
+    }
+
+    // Each le count must be exactly the number of samples at or under it, and never go down
+    @Test
+    void exportIsCumulativeAndExact() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        Random random = new Random(2);
+        List<Long> values = new ArrayList<>();
+        for (int n = 0; n < 20_000; n++) {
+            long v = (long) Math.exp(random.nextDouble() * Math.log(20_000_000));
+            values.add(v);
+            h.record(v);
+        }
+        // straddles the 1ms and 100ms nominal bounds
+        for (long v : new long[] { 999, 1_000, 1_001, 1_010, 99_999, 100_000, 100_500 }) {
+            values.add(v);
+            h.record(v);
+        }
+
+        StringBuilder out = new StringBuilder();
+        h.write(out, "t_seconds", "");
+        long previous = -1;
+        int buckets = 0;
+        for (String line : out.toString().split("\n")) {
+            if (!line.startsWith("t_seconds_bucket")) continue;
+            String le = line.substring(line.indexOf("le=\"") + 4, line.indexOf("\"}"));
+            long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            assertTrue(count >= previous, line);
+            previous = count;
+            long expected = le.equals("+Inf") ? values.size()
+                    : values.stream().filter(v -> v <= new BigDecimal(le).movePointRight(6).longValueExact()).count();
+            assertEquals(expected, count, line);
+            buckets++;
+        }
+        assertEquals(Metrics.Histogram.EXPORT_BOUNDS.length + 1, buckets);
+        assertTrue(out.toString().contains("t_seconds_count " + values.size()));
+    }
+
+    @Test
+    void exportBoundsAreNativeEdgesNearTheNominalOnes() {
+        long[] nominal = { 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+                100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000 };
+        for (int i = 0; i < nominal.length; i++) {
+            long b = Metrics.Histogram.EXPORT_BOUNDS[i];
+            assertEquals(b, Metrics.Histogram.upperBound(Metrics.Histogram.index(b)));
+            assertTrue(b >= nominal[i] && b <= nominal[i] + nominal[i] / 16, nominal[i] + " -> " + b);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.nawafalb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    // N callers racing on one key while the fetch is held open must share a single upstream call
+    @Test
+    void concurrentCallersShareOneUpstreamCall() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>("test", "concurrent", 0, v -> true);
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger fetches = new AtomicInteger();
+        int n = 32;
+        CountDownLatch ready = new CountDownLatch(n);
+        CountDownLatch go = new CountDownLatch(1);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            Thread t = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                flight.run("k", () -> {
+                    fetches.incrementAndGet();
+                    return upstream;
+                }).whenComplete((v, err) -> {
+                    if (err != null) result.completeExceptionally(err); else result.complete(v);
+                });
+            });
+            threads.add(t);
+            t.start();
+        }
+        ready.await();
+        go.countDown();
+        for (Thread t : threads) t.join();
+
+        upstream.complete("v");
+        for (CompletableFuture<String> r : results) assertEquals("v", r.get(5, TimeUnit.SECONDS));
+        assertEquals(1, fetches.get());
+        assertEquals(1L, flight.stats().get("upstream"));
+        assertEquals((long) n - 1, flight.stats().get("coalesced"));
+        assertEquals(0, flight.stats().get("inFlight"));
+    }
+
+    @Test
+    void failureIsSharedButNotKeptInTheWindow() {
+        SingleFlight<String> flight = new SingleFlight<>("test", "failure", 60_000, v -> true);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> a = flight.run("k", () -> first);
+        CompletableFuture<String> b = flight.run("k", CompletableFuture::new);
+        first.completeExceptionally(new IllegalStateException("down"));
+        assertEquals("down", assertThrows(ExecutionException.class, a::get).getCause().getMessage());
+        assertEquals("down", assertThrows(ExecutionException.class, b::get).getCause().getMessage());
+
+        AtomicInteger fetches = new AtomicInteger();
+        assertEquals("v", flight.run("k", () -> {
+            fetches.incrementAndGet();
+            return CompletableFuture.completedFuture("v");
+        }).join());
+        assertEquals(1, fetches.get());
+        assertEquals(0L, flight.stats().get("windowHits"));
+    }
+
+    @Test
+    void thrownFetchFailsTheCallInsteadOfEscaping() {
+        SingleFlight<String> flight = new SingleFlight<>("test", "thrown", 60_000, v -> true);
+        CompletableFuture<String> f = flight.run("k", () -> { throw new IllegalStateException("boom"); });
+        assertTrue(f.isCompletedExceptionally());
+        assertEquals("v", flight.run("k", () -> CompletableFuture.completedFuture("v")).join());
+    }
+
+    @Test
+    void successIsServedFromTheWindowOnlyWhenCacheable() {
+        SingleFlight<String> flight = new SingleFlight<>("test", "window", 60_000, v -> !v.startsWith("partial"));
+        AtomicInteger fetches = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("v", flight.run("good", () -> {
+                fetches.incrementAndGet();
+                return CompletableFuture.completedFuture("v");
+            }).join());
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(2L, flight.stats().get("windowHits"));
+
+        for (int i = 0; i < 3; i++) {
+            flight.run("bad", () -> {
+                fetches.incrementAndGet();
+                return CompletableFuture.completedFuture("partial");
+            }).join();
+        }
+        assertEquals(4, fetches.get());
+    }
+}
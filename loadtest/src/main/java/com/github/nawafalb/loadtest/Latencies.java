@@ -0,0 +1,54 @@
+package com.github.nawafalb.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Every latency sample for one hop, in microseconds. A run records at most
+ * rps x duration samples, so keeping them all and sorting once at the end
+ * gives exact percentiles without a histogram library.
+ */
+final class Latencies {
+
+    private long[] samples = new long[1024];
+    private int count;
+
+    synchronized void record(long micros) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = micros;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /** count, mean, p50/p90/p99/p999 and max, in milliseconds. */
+    synchronized Map<String, Object> summary() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long s : sorted) sum += s;
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", count);
+        m.put("mean", count == 0 ? 0 : ms(sum / count));
+        m.put("p50", ms(percentile(sorted, 0.50)));
+        m.put("p90", ms(percentile(sorted, 0.90)));
+        m.put("p99", ms(percentile(sorted, 0.99)));
+        m.put("p999", ms(percentile(sorted, 0.999)));
+        m.put("max", count == 0 ? 0 : ms(sorted[count - 1]));
+        return m;
+    }
+
+    // nearest-rank
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static double ms(long micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+}
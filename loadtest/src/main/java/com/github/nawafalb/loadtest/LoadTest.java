@@ -0,0 +1,230 @@
+package com.github.nawafalb.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.nawafalb.ApiServer;
+import com.github.nawafalb.ClassApiServer;
+import com.github.nawafalb.SampleData;
+import com.github.nawafalb.uiapi.UiApiServer;
+import com.github.nawafalb.uiapi.UpstreamClient;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for the ui-api -> class-api -> data-api chain.
+ *
+ * Starts all three services in this JVM on free ports, against a fresh
+ * SQLite file seeded by {@link SampleData}, then sends requests open-loop:
+ * request i goes out at start + i/rps whether or not earlier ones have come
+ * back, and its latency is measured from that planned time. A slow server
+ * therefore shows up as latency instead of quietly lowering the load.
+ *
+ * End-to-end latency is what the client sees. The per-hop numbers come from
+ * the Server-Timing header the services fill in on the way back: "ui" is
+ * the ui-api handler, "class" the class-api handler and "data" the Data API
+ * calls class-api made.
+ *
+ * Options (all --name=value):
+ *   rps=100 duration=30 warmup=5    target rate and seconds to measure / discard
+ *   rows=10000                       rows per table in the seeded database
+ *   path=/dashboard                  request path (and query) on the ui-api
+ *   target=http://host:port          test a running ui-api instead of starting one
+ *   out=loadtest-results.json        where to write the results
+ */
+public class LoadTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // Outcome of one measured phase
+    static final class Run {
+        final Latencies endToEnd = new Latencies();
+        final Map<String, Latencies> hops = new ConcurrentHashMap<>();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder errors = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        int sent;
+        long elapsedNanos;
+
+        void record(long plannedNanos, HttpResponse<?> r, Throwable err) {
+            inFlight.decrementAndGet();
+            if (err != null) {
+                errors.increment();
+                return;
+            }
+            endToEnd.record((System.nanoTime() - plannedNanos) / 1000);
+            statuses.computeIfAbsent(r.statusCode(), k -> new LongAdder()).increment();
+            if (r.statusCode() >= 400) errors.increment();
+            r.headers().firstValue("Server-Timing").ifPresent(this::recordHops);
+        }
+
+        // "ui;dur=1.2, class;dur=0.8, data;dur=0.5"
+        private void recordHops(String header) {
+            for (String metric : header.split(",")) {
+                String[] parts = metric.trim().split(";");
+                for (int i = 1; i < parts.length; i++) {
+                    if (parts[i].startsWith("dur=")) {
+                        double ms = Double.parseDouble(parts[i].substring(4));
+                        hops.computeIfAbsent(parts[0], k -> new Latencies()).record((long) (ms * 1000));
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = options(args);
+        int rps = Integer.parseInt(opts.getOrDefault("rps", "100"));
+        int duration = Integer.parseInt(opts.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "5"));
+        int rows = Integer.parseInt(opts.getOrDefault("rows", "10000"));
+        String path = opts.getOrDefault("path", "/dashboard");
+        Path out = Path.of(opts.getOrDefault("out", "loadtest-results.json"));
+
+        String target = opts.get("target");
+        if (target == null) target = startChain(rows);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target + path))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+
+        if (warmup > 0) {
+            System.out.println("Warming up: " + rps + " rps for " + warmup + "s");
+            drive(client, request, rps, warmup);
+        }
+        System.out.println("Measuring: " + rps + " rps for " + duration + "s against " + target + path);
+        Instant startedAt = Instant.now();
+        Run run = drive(client, request, rps, duration);
+
+        Map<String, Object> results = results(run, startedAt, target, path, rps, duration, warmup, opts.containsKey("target") ? null : rows);
+        mapper.writeValue(out.toFile(), results);
+        print(run, results);
+        System.out.println("Results written to " + out.toAbsolutePath());
+
+        // the in-process servers run on non-daemon threads
+        System.exit(0);
+    }
+
+    // Seeds a database and starts data-api, class-api and ui-api on free ports; returns the ui-api base URL
+    static String startChain(int rows) throws Exception {
+        Path db = Files.createTempDirectory("weather-loadtest").resolve("loadtest.db");
+        // before anything touches DatabaseHelper, which reads it once
+        System.setProperty("db.url", "jdbc:sqlite:" + db);
+        System.out.println("Seeding " + rows + " rows per table into " + db);
+        SampleData.create(db, rows);
+
+        HttpServer data = ApiServer.start(0);
+        int classPort = ClassApiServer.start(0, "http://localhost:" + data.getAddress().getPort());
+        HttpServer ui = UiApiServer.start(0, UpstreamClient.fromEnv("http://localhost:" + classPort));
+        return "http://localhost:" + ui.getAddress().getPort();
+    }
+
+    static Run drive(HttpClient client, HttpRequest request, int rps, int seconds) throws InterruptedException {
+        Run run = new Run();
+        long period = TimeUnit.SECONDS.toNanos(1) / rps;
+        int total = rps * seconds;
+        List<CompletableFuture<?>> pending = new ArrayList<>(total);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long planned = start + i * period;
+            long wait;
+            while ((wait = planned - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            run.maxInFlight.accumulateAndGet(run.inFlight.incrementAndGet(), Math::max);
+            pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((r, err) -> run.record(planned, r, err)));
+        }
+        run.sent = total;
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // failures are already counted per request; stragglers past the timeout are reported as not completed
+        }
+        run.elapsedNanos = System.nanoTime() - start;
+        return run;
+    }
+
+    static Map<String, Object> results(Run run, Instant startedAt, String target, String path,
+                                       int rps, int duration, int warmup, Integer rows) {
+        int completed = run.endToEnd.count();
+        Map<String, Object> r = new LinkedHashMap<>();
+        r.put("startedAt", startedAt.toString());
+        r.put("target", target + path);
+        r.put("targetRps", rps);
+        r.put("durationSeconds", duration);
+        r.put("warmupSeconds", warmup);
+        if (rows != null) r.put("rows", rows);
+        r.put("sent", run.sent);
+        r.put("completed", completed);
+        r.put("errors", run.errors.sum());
+        r.put("throughputRps", Math.round(completed * 1e10 / run.elapsedNanos) / 10.0);
+        r.put("maxInFlight", run.maxInFlight.get());
+
+        Map<String, Long> statuses = new TreeMap<>();
+        run.statuses.forEach((code, n) -> statuses.put(String.valueOf(code), n.sum()));
+        r.put("statuses", statuses);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("endToEnd", run.endToEnd.summary());
+        for (String hop : List.of("ui", "class", "data")) {
+            Latencies l = run.hops.get(hop);
+            if (l != null) latency.put(hop, l.summary());
+        }
+        run.hops.forEach((hop, l) -> latency.putIfAbsent(hop, l.summary()));
+        r.put("latencyMs", latency);
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Run run, Map<String, Object> results) {
+        System.out.printf("%d sent, %s completed, %s errors, %s req/s, statuses %s%n",
+                run.sent, results.get("completed"), results.get("errors"), results.get("throughputRps"), results.get("statuses"));
+        System.out.printf("%-10s %8s %8s %8s %8s %8s%n", "hop (ms)", "p50", "p99", "p999", "max", "count");
+        ((Map<String, Map<String, Object>>) results.get("latencyMs")).forEach((hop, s) ->
+                System.out.printf("%-10s %8s %8s %8s %8s %8s%n", hop, s.get("p50"), s.get("p99"), s.get("p999"), s.get("max"), s.get("count")));
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + a);
+            }
+            int eq = a.indexOf('=');
+            opts.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        return opts;
+    }
+}